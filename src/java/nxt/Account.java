@@ -5,16 +5,16 @@ import nxt.util.Convert;
 import nxt.util.Listener;
 import nxt.util.Listeners;
 import nxt.util.Logger;
+import nxt.util.LongLongMap;
+import nxt.util.OffHeapTable;
 
-import java.math.BigInteger;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -31,6 +31,12 @@ public final class Account {
 
     private static final Listeners<Account,Event> listeners = new Listeners<>();
 
+    private static final Listeners<Account,Event> immediateListeners = new Listeners<>();
+
+    // accounts changed by the current thread since beginChangeSet, per event type
+    private static final ThreadLocal<ChangeSet> changeSets = new ThreadLocal<>();
+
+    // listeners are notified once per account and event type after each block is applied or undone
     public static boolean addListener(Listener<Account> listener, Event eventType) {
         return listeners.addListener(listener, eventType);
     }
@@ -39,6 +45,61 @@ public final class Account {
         return listeners.removeListener(listener, eventType);
     }
 
+    // immediate listeners are notified on every single balance change
+    public static boolean addImmediateListener(Listener<Account> listener, Event eventType) {
+        return immediateListeners.addListener(listener, eventType);
+    }
+
+    public static boolean removeImmediateListener(Listener<Account> listener, Event eventType) {
+        return immediateListeners.removeListener(listener, eventType);
+    }
+
+    // defers notification of regular listeners by the current thread until the matching endChangeSet call
+    static void beginChangeSet() {
+        ChangeSet changeSet = changeSets.get();
+        if (changeSet == null) {
+            changeSet = new ChangeSet();
+            changeSets.set(changeSet);
+        }
+        changeSet.depth += 1;
+    }
+
+    static void endChangeSet() {
+        ChangeSet changeSet = changeSets.get();
+        if (changeSet == null) {
+            throw new IllegalStateException("No change set in progress");
+        }
+        if (--changeSet.depth > 0) {
+            return;
+        }
+        changeSets.remove();
+        for (Map.Entry<Event, Set<Account>> entry : changeSet.changes.entrySet()) {
+            for (Account account : entry.getValue()) {
+                listeners.notify(account, entry.getKey());
+            }
+        }
+    }
+
+    private static void notifyListeners(Account account, Event eventType) {
+        immediateListeners.notify(account, eventType);
+        ChangeSet changeSet = changeSets.get();
+        if (changeSet == null) {
+            listeners.notify(account, eventType);
+        } else {
+            Set<Account> accounts = changeSet.changes.get(eventType);
+            if (accounts == null) {
+                accounts = new LinkedHashSet<>();
+                changeSet.changes.put(eventType, accounts);
+            }
+            accounts.add(account);
+        }
+    }
+
+    private static final class ChangeSet {
+        private final Map<Event, Set<Account>> changes = new EnumMap<>(Event.class);
+        private int depth;
+    }
+
     public static Collection<Account> getAllAccounts() {
         return allAccounts;
     }
@@ -52,117 +113,169 @@ public final class Account {
     }
 
     public static Long getId(byte[] publicKey) {
+        if (publicKey.length != 32) {
+            return calculateId(publicKey);
+        }
+        int index = ((publicKey[0] & 0xFF) | (publicKey[1] & 0xFF) << 8 | (publicKey[2] & 0xFF) << 16) & (publicKeyIds.length - 1);
+        PublicKeyId publicKeyId = publicKeyIds[index];
+        if (publicKeyId != null && Arrays.equals(publicKeyId.publicKey, publicKey)) {
+            return publicKeyId.id;
+        }
+        Long id = calculateId(publicKey);
+        publicKeyIds[index] = new PublicKeyId(publicKey.clone(), id);
+        return id;
+    }
+
+    private static Long calculateId(byte[] publicKey) {
         byte[] publicKeyHash = Crypto.sha256().digest(publicKey);
-        BigInteger bigInteger = new BigInteger(1, new byte[] {publicKeyHash[7], publicKeyHash[6], publicKeyHash[5],
-                publicKeyHash[4], publicKeyHash[3], publicKeyHash[2], publicKeyHash[1], publicKeyHash[0]});
-        return bigInteger.longValue();
+        return (publicKeyHash[0] & 0xFFL) | (publicKeyHash[1] & 0xFFL) << 8 | (publicKeyHash[2] & 0xFFL) << 16
+                | (publicKeyHash[3] & 0xFFL) << 24 | (publicKeyHash[4] & 0xFFL) << 32 | (publicKeyHash[5] & 0xFFL) << 40
+                | (publicKeyHash[6] & 0xFFL) << 48 | (publicKeyHash[7] & 0xFFL) << 56;
+    }
+
+    // direct mapped cache of recently used public keys, a colliding key simply replaces the previous entry
+    // entries are immutable and hold their own copy of the key, so unsynchronized reads of the array are safe
+    private static final class PublicKeyId {
+        private final byte[] publicKey;
+        private final Long id;
+        private PublicKeyId(byte[] publicKey, Long id) {
+            this.publicKey = publicKey;
+            this.id = id;
+        }
+    }
+
+    private static final PublicKeyId[] publicKeyIds = new PublicKeyId[1 << 16];
+
+    // with nas.offHeapAccounts set, the balances, key height and public key of each account are kept in a row of
+    // this table instead of on the heap, a rescan starts a new table and accounts from before it keep the old one
+    // the row of an account removed when its block is popped off stays unused until then
+    private static final int BALANCE = 0;
+    private static final int UNCONFIRMED_BALANCE = 1;
+    private static final int KEY_HEIGHT = 2;
+    private static final int PUBLIC_KEY_LENGTH = 3;
+    private static final int PUBLIC_KEY = 4;
+    private static final boolean offHeapAccounts = Nxt.getBooleanProperty("nas.offHeapAccounts");
+    private static volatile OffHeapTable offHeapTable = offHeapAccounts ? newOffHeapTable() : null;
+
+    private static OffHeapTable newOffHeapTable() {
+        return new OffHeapTable(8, 8, 4, 1, 32);
     }
 
     static Account addOrGetAccount(Long id) {
-        Account account = new Account(id);
+        Account account = accounts.get(id);
+        if (account != null) {
+            return account;
+        }
+        account = new Account(id);
         Account oldAccount = accounts.putIfAbsent(id, account);
         return oldAccount != null ? oldAccount : account;
     }
 
     static void clear() {
         accounts.clear();
+        if (offHeapAccounts) {
+            offHeapTable = newOffHeapTable();
+        }
     }
 
+    // all updates are synchronized on the account
+    // balances and the key are replaced as one immutable state, readers take the current state without locking
+    // and always see the fields of a single update
+    // in an off-heap row they are updated in place instead, and readers copy the row into a state under the lock,
+    // only the guaranteed balances are then kept in state
+    // asset balances are updated in place, readers share a copy taken on the first read after an update
     private final Long id;
     private final int height;
-    private byte[] publicKey;
+    private final OffHeapTable table;
+    private final int row;
     private int keyHeight;
-    private long balance;
-    private long unconfirmedBalance;
-    private final List<GuaranteedBalance> guaranteedBalances = new ArrayList<>();
-
-    private final Map<Long, Integer> assetBalances = new HashMap<>();
-    private final Map<Long, Integer> unconfirmedAssetBalances = new HashMap<>();
+    private volatile State state = new State(null, 0, 0, GuaranteedBalances.EMPTY);
+    private LongLongMap assetBalances;
+    private LongLongMap unconfirmedAssetBalances;
+    private volatile AssetBalances assetBalancesSnapshot;
 
     private Account(Long id) {
         this.id = id;
         this.height = Nxt.getBlockchain().getLastBlock().getHeight();
+        this.table = offHeapTable;
+        this.row = table != null ? table.addRow() : -1;
     }
 
     public Long getId() {
         return id;
     }
 
-    public synchronized byte[] getPublicKey() {
-        return publicKey;
+    public State getState() {
+        if (table == null) {
+            return state;
+        }
+        synchronized (this) {
+            return new State(getCurrentPublicKey(), table.getLong(row, BALANCE), table.getLong(row, UNCONFIRMED_BALANCE),
+                    state.guaranteedBalances);
+        }
     }
 
-    public synchronized long getBalance() {
-        return balance;
+    public byte[] getPublicKey() {
+        return getState().getPublicKey();
     }
 
-    public synchronized long getUnconfirmedBalance() {
-        return unconfirmedBalance;
+    public long getBalance() {
+        if (table == null) {
+            return state.getBalance();
+        }
+        synchronized (this) {
+            return table.getLong(row, BALANCE);
+        }
     }
 
-    public int getEffectiveBalance() {
-
-        Block lastBlock = Nxt.getBlockchain().getLastBlock();
-        if (lastBlock.getHeight() < Constants.TRANSPARENT_FORGING_BLOCK_3 && this.height < Constants.TRANSPARENT_FORGING_BLOCK_2) {
-
-            if (this.height == 0) {
-                return (int)(getBalance() / 100);
-            }
-            if (lastBlock.getHeight() - this.height < 1440) {
-                return 0;
-            }
-            int receivedInlastBlock = 0;
-            for (Transaction transaction : lastBlock.getTransactions()) {
-                if (transaction.getRecipientId().equals(id)) {
-                    receivedInlastBlock += transaction.getAmount();
-                }
-            }
-            return (int)(getBalance() / 100) - receivedInlastBlock;
-
-        } else {
-            return (int)(getGuaranteedBalance(1440) / 100);
+    public long getUnconfirmedBalance() {
+        if (table == null) {
+            return state.getUnconfirmedBalance();
+        }
+        synchronized (this) {
+            return table.getLong(row, UNCONFIRMED_BALANCE);
         }
+    }
 
+    public int getEffectiveBalance() {
+        return getState().getEffectiveBalance();
     }
 
-    public synchronized long getGuaranteedBalance(final int numberOfConfirmations) {
-        if (numberOfConfirmations >= Nxt.getBlockchain().getLastBlock().getHeight()) {
-            return 0;
-        }
-        if (numberOfConfirmations > maxTrackedBalanceConfirmations || numberOfConfirmations < 0) {
-            throw new IllegalArgumentException("Number of required confirmations must be between 0 and " + maxTrackedBalanceConfirmations);
-        }
-        if (guaranteedBalances.isEmpty()) {
-            return 0;
-        }
-        int i = Collections.binarySearch(guaranteedBalances, new GuaranteedBalance(Nxt.getBlockchain().getLastBlock().getHeight() - numberOfConfirmations, 0));
-        if (i == -1) {
-            return 0;
-        }
-        if (i < -1) {
-            i = -i - 2;
-        }
-        if (i > guaranteedBalances.size() - 1) {
-            i = guaranteedBalances.size() - 1;
+    public long getGuaranteedBalance(final int numberOfConfirmations) {
+        return getState().getGuaranteedBalance(numberOfConfirmations);
+    }
+
+    public long getUnconfirmedAssetBalance(Long assetId) {
+        AssetBalances snapshot = assetBalancesSnapshot;
+        if (snapshot != null) {
+            return snapshot.getUnconfirmedAssetBalance(assetId);
         }
-        GuaranteedBalance result;
-        while ((result = guaranteedBalances.get(i)).ignore && i > 0) {
-            i--;
+        synchronized (this) {
+            return unconfirmedAssetBalances == null ? 0 : unconfirmedAssetBalances.get(assetId);
         }
-        return result.ignore ? 0 : result.balance;
-
     }
 
-    public synchronized Integer getUnconfirmedAssetBalance(Long assetId) {
-        return unconfirmedAssetBalances.get(assetId);
+    // read-only snapshots
+    public Map<Long, Long> getAssetBalances() {
+        return getAssetBalancesSnapshot().assetBalances;
     }
 
-    public Map<Long, Integer> getAssetBalances() {
-        return Collections.unmodifiableMap(assetBalances);
+    public Map<Long, Long> getUnconfirmedAssetBalances() {
+        return getAssetBalancesSnapshot().unconfirmedAssetBalances;
     }
 
-    public Map<Long, Integer> getUnconfirmedAssetBalances() {
-        return Collections.unmodifiableMap(unconfirmedAssetBalances);
+    private AssetBalances getAssetBalancesSnapshot() {
+        AssetBalances snapshot = assetBalancesSnapshot;
+        if (snapshot == null) {
+            synchronized (this) {
+                snapshot = assetBalancesSnapshot;
+                if (snapshot == null) {
+                    snapshot = new AssetBalances(assetBalances, unconfirmedAssetBalances);
+                    assetBalancesSnapshot = snapshot;
+                }
+            }
+        }
+        return snapshot;
     }
 
     // returns true iff:
@@ -170,23 +283,24 @@ public final class Account {
     // or
     // this.publicKey is already set to an array equal to key
     synchronized boolean setOrVerify(byte[] key, int height) {
-        if (this.publicKey == null) {
-            this.publicKey = key;
-            this.keyHeight = -1;
+        int keyHeight = getKeyHeight();
+        if (! hasPublicKey()) {
+            setPublicKey(key);
+            setKeyHeight(-1);
             return true;
-        } else if (Arrays.equals(this.publicKey, key)) {
+        } else if (isPublicKey(key)) {
             return true;
-        } else if (this.keyHeight == -1) {
+        } else if (keyHeight == -1) {
             Logger.logMessage("DUPLICATE KEY!!!");
             Logger.logMessage("Account key for " + Convert.toUnsignedLong(id) + " was already set to a different one at the same height "
                     + ", current height is " + height + ", rejecting new key");
             return false;
-        } else if (this.keyHeight >= height) {
+        } else if (keyHeight >= height) {
             Logger.logMessage("DUPLICATE KEY!!!");
             Logger.logMessage("Changing key for account " + Convert.toUnsignedLong(id) + " at height " + height
                     + ", was previously set to a different one at height " + keyHeight);
-            this.publicKey = key;
-            this.keyHeight = height;
+            setPublicKey(key);
+            setKeyHeight(height);
             return true;
         }
         Logger.logMessage("DUPLICATE KEY!!!");
@@ -199,21 +313,23 @@ public final class Account {
         if (! setOrVerify(key, this.height)) {
             throw new IllegalStateException("Generator public key mismatch");
         }
-        if (this.publicKey == null) {
+        int keyHeight = getKeyHeight();
+        if (! hasPublicKey()) {
             throw new IllegalStateException("Public key has not been set for account " + Convert.toUnsignedLong(id)
                     +" at height " + height + ", key height is " + keyHeight);
         }
-        if (this.keyHeight == -1 || this.keyHeight > height) {
-            this.keyHeight = height;
+        if (keyHeight == -1 || keyHeight > height) {
+            setKeyHeight(height);
         }
     }
 
     synchronized void undo(int height) {
-        if (this.keyHeight >= height) {
+        int keyHeight = getKeyHeight();
+        if (keyHeight >= height) {
             Logger.logDebugMessage("Unsetting key for account " + Convert.toUnsignedLong(id) + " at height " + height
                     + ", was previously set at height " + keyHeight);
-            this.publicKey = null;
-            this.keyHeight = -1;
+            setPublicKey(null);
+            setKeyHeight(-1);
         }
         if (this.height == height) {
             Logger.logDebugMessage("Removing account " + Convert.toUnsignedLong(id) + " which was created in the popped off block");
@@ -221,157 +337,397 @@ public final class Account {
         }
     }
 
-    synchronized int getAssetBalance(Long assetId) {
-        return Convert.nullToZero(assetBalances.get(assetId));
+    long getAssetBalance(Long assetId) {
+        AssetBalances snapshot = assetBalancesSnapshot;
+        if (snapshot != null) {
+            return snapshot.getAssetBalance(assetId);
+        }
+        synchronized (this) {
+            return assetBalances == null ? 0 : assetBalances.get(assetId);
+        }
     }
 
-    void addToAssetBalance(Long assetId, int quantity) {
+    void addToAssetBalance(Long assetId, long quantity) {
         synchronized (this) {
-            Integer assetBalance = assetBalances.get(assetId);
-            if (assetBalance == null) {
-                assetBalances.put(assetId, quantity);
-            } else {
-                assetBalances.put(assetId, assetBalance + quantity);
+            if (assetBalances == null) {
+                assetBalances = new LongLongMap();
             }
+            AssetHolders.update(id, assetId, assetBalances.add(assetId, quantity));
+            assetBalancesSnapshot = null;
         }
-        listeners.notify(this, Event.ASSET_BALANCE);
+        notifyListeners(this, Event.ASSET_BALANCE);
     }
 
-    void addToUnconfirmedAssetBalance(Long assetId, int quantity) {
+    void addToUnconfirmedAssetBalance(Long assetId, long quantity) {
         synchronized (this) {
-            Integer unconfirmedAssetBalance = unconfirmedAssetBalances.get(assetId);
-            if (unconfirmedAssetBalance == null) {
-                unconfirmedAssetBalances.put(assetId, quantity);
-            } else {
-                unconfirmedAssetBalances.put(assetId, unconfirmedAssetBalance + quantity);
+            if (unconfirmedAssetBalances == null) {
+                unconfirmedAssetBalances = new LongLongMap();
             }
+            unconfirmedAssetBalances.add(assetId, quantity);
+            assetBalancesSnapshot = null;
         }
-        listeners.notify(this, Event.UNCONFIRMED_ASSET_BALANCE);
+        notifyListeners(this, Event.UNCONFIRMED_ASSET_BALANCE);
     }
 
-    void addToAssetAndUnconfirmedAssetBalance(Long assetId, int quantity) {
+    void addToAssetAndUnconfirmedAssetBalance(Long assetId, long quantity) {
         synchronized (this) {
-            Integer assetBalance = assetBalances.get(assetId);
-            if (assetBalance == null) {
-                assetBalances.put(assetId, quantity);
-            } else {
-                assetBalances.put(assetId, assetBalance + quantity);
+            if (assetBalances == null) {
+                assetBalances = new LongLongMap();
             }
-            Integer unconfirmedAssetBalance = unconfirmedAssetBalances.get(assetId);
-            if (unconfirmedAssetBalance == null) {
-                unconfirmedAssetBalances.put(assetId, quantity);
-            } else {
-                unconfirmedAssetBalances.put(assetId, unconfirmedAssetBalance + quantity);
+            if (unconfirmedAssetBalances == null) {
+                unconfirmedAssetBalances = new LongLongMap();
             }
+            AssetHolders.update(id, assetId, assetBalances.add(assetId, quantity));
+            unconfirmedAssetBalances.add(assetId, quantity);
+            assetBalancesSnapshot = null;
         }
-        listeners.notify(this, Event.ASSET_BALANCE);
-        listeners.notify(this, Event.UNCONFIRMED_ASSET_BALANCE);
+        notifyListeners(this, Event.ASSET_BALANCE);
+        notifyListeners(this, Event.UNCONFIRMED_ASSET_BALANCE);
     }
 
     void addToBalance(long amount) {
         synchronized (this) {
-            this.balance += amount;
-            addToGuaranteedBalance(amount);
+            long balance = getCurrentBalance() + amount;
+            setBalances(balance, getCurrentUnconfirmedBalance(), addToGuaranteedBalance(state.guaranteedBalances, amount, balance));
         }
-        listeners.notify(this, Event.BALANCE);
+        notifyListeners(this, Event.BALANCE);
     }
 
     void addToUnconfirmedBalance(long amount) {
         synchronized (this) {
-            this.unconfirmedBalance += amount;
+            setBalances(getCurrentBalance(), getCurrentUnconfirmedBalance() + amount, state.guaranteedBalances);
         }
-        listeners.notify(this, Event.UNCONFIRMED_BALANCE);
+        notifyListeners(this, Event.UNCONFIRMED_BALANCE);
     }
 
     void addToBalanceAndUnconfirmedBalance(long amount) {
         synchronized (this) {
-            this.balance += amount;
-            this.unconfirmedBalance += amount;
-            addToGuaranteedBalance(amount);
+            long balance = getCurrentBalance() + amount;
+            setBalances(balance, getCurrentUnconfirmedBalance() + amount,
+                    addToGuaranteedBalance(state.guaranteedBalances, amount, balance));
+        }
+        notifyListeners(this, Event.BALANCE);
+        notifyListeners(this, Event.UNCONFIRMED_BALANCE);
+    }
+
+    // the methods below are only called under the account lock
+
+    private long getCurrentBalance() {
+        return table == null ? state.balance : table.getLong(row, BALANCE);
+    }
+
+    private long getCurrentUnconfirmedBalance() {
+        return table == null ? state.unconfirmedBalance : table.getLong(row, UNCONFIRMED_BALANCE);
+    }
+
+    private void setBalances(long balance, long unconfirmedBalance, GuaranteedBalances guaranteedBalances) {
+        if (table == null) {
+            state = new State(state.publicKey, balance, unconfirmedBalance, guaranteedBalances);
+            return;
+        }
+        table.putLong(row, BALANCE, balance);
+        table.putLong(row, UNCONFIRMED_BALANCE, unconfirmedBalance);
+        if (guaranteedBalances != state.guaranteedBalances) {
+            state = new State(null, 0, 0, guaranteedBalances);
+        }
+    }
+
+    private int getKeyHeight() {
+        return table == null ? keyHeight : table.getInt(row, KEY_HEIGHT);
+    }
+
+    private void setKeyHeight(int keyHeight) {
+        if (table == null) {
+            this.keyHeight = keyHeight;
+        } else {
+            table.putInt(row, KEY_HEIGHT, keyHeight);
+        }
+    }
+
+    private boolean hasPublicKey() {
+        return table == null ? state.publicKey != null : table.getByte(row, PUBLIC_KEY_LENGTH) != 0;
+    }
+
+    private boolean isPublicKey(byte[] key) {
+        if (table == null) {
+            return Arrays.equals(state.publicKey, key);
+        }
+        return table.getByte(row, PUBLIC_KEY_LENGTH) == key.length && table.equalBytes(row, PUBLIC_KEY, key);
+    }
+
+    private byte[] getCurrentPublicKey() {
+        int length = table.getByte(row, PUBLIC_KEY_LENGTH);
+        if (length == 0) {
+            return null;
         }
-        listeners.notify(this, Event.BALANCE);
-        listeners.notify(this, Event.UNCONFIRMED_BALANCE);
+        byte[] publicKey = new byte[length];
+        table.getBytes(row, PUBLIC_KEY, publicKey);
+        return publicKey;
     }
 
-    private synchronized void addToGuaranteedBalance(long amount) {
+    private void setPublicKey(byte[] key) {
+        if (table == null) {
+            state = new State(key, state.balance, state.unconfirmedBalance, state.guaranteedBalances);
+            return;
+        }
+        if (key != null) {
+            table.putBytes(row, PUBLIC_KEY, key);
+        }
+        table.putByte(row, PUBLIC_KEY_LENGTH, (byte)(key == null ? 0 : key.length));
+    }
+
+    // balance is the account balance after adding amount
+    private static GuaranteedBalances addToGuaranteedBalance(GuaranteedBalances guaranteedBalances, long amount, long balance) {
         int blockchainHeight = Nxt.getBlockchain().getLastBlock().getHeight();
-        GuaranteedBalance last = null;
-        if (guaranteedBalances.size() > 0 && (last = guaranteedBalances.get(guaranteedBalances.size() - 1)).height > blockchainHeight) {
+        int size = guaranteedBalances.size();
+        if (size > 0 && guaranteedBalances.getHeight(size - 1) > blockchainHeight) {
             // this only happens while last block is being popped off
             if (amount > 0) {
                 // this is a reversal of a withdrawal or a fee, so previous gb records need to be corrected
-                for (GuaranteedBalance gb : guaranteedBalances) {
-                    gb.balance += amount;
-                }
+                guaranteedBalances = guaranteedBalances.addToAll(amount);
             } // deposits don't need to be reversed as they have never been applied to old gb records to begin with
-            last.ignore = true; // set dirty flag
-            return; // block popped off, no further processing
-        }
-        int trimTo = 0;
-        for (int i = 0; i < guaranteedBalances.size(); i++) {
-            GuaranteedBalance gb = guaranteedBalances.get(i);
-            if (gb.height < blockchainHeight - maxTrackedBalanceConfirmations
-                    && i < guaranteedBalances.size() - 1
-                    && guaranteedBalances.get(i + 1).height >= blockchainHeight - maxTrackedBalanceConfirmations) {
-                trimTo = i; // trim old gb records but keep at least one at height lower than the supported maxTrackedBalanceConfirmations
-                if (blockchainHeight >= Constants.TRANSPARENT_FORGING_BLOCK_4 && blockchainHeight < Constants.TRANSPARENT_FORGING_BLOCK_5) {
-                    gb.balance += amount; // because of a bug which leads to a fork
-                } else if (blockchainHeight >= Constants.TRANSPARENT_FORGING_BLOCK_5 && amount < 0) {
-                    gb.balance += amount;
-                }
-            } else if (amount < 0) {
-                gb.balance += amount; // subtract current block withdrawals from all previous gb records
-            }
-            // ignore deposits when updating previous gb records
-        }
-        if (trimTo > 0) {
-            Iterator<GuaranteedBalance> iter = guaranteedBalances.iterator();
-            while (iter.hasNext() && trimTo > 0) {
-                iter.next();
-                iter.remove();
-                trimTo--;
+            // set dirty flag
+            return guaranteedBalances.setLast(guaranteedBalances.getBalance(size - 1), true); // block popped off, no further processing
+        }
+        if (amount < 0) {
+            guaranteedBalances = guaranteedBalances.addToAll(amount); // subtract current block withdrawals from all previous gb records
+        }
+        // ignore deposits when updating previous gb records
+        int trimTo = guaranteedBalances.floorIndex(blockchainHeight - maxTrackedBalanceConfirmations - 1);
+        if (trimTo >= 0 && trimTo < size - 1) {
+            // trim old gb records but keep at least one at height lower than the supported maxTrackedBalanceConfirmations
+            long adjustment = 0;
+            if (blockchainHeight >= Constants.TRANSPARENT_FORGING_BLOCK_4 && blockchainHeight < Constants.TRANSPARENT_FORGING_BLOCK_5) {
+                adjustment = amount; // because of a bug which leads to a fork
+            } else if (blockchainHeight >= Constants.TRANSPARENT_FORGING_BLOCK_5 && amount < 0) {
+                adjustment = amount;
             }
+            // the record kept below the tracked range only gets the adjustment above, undo the withdrawal applied to all
+            guaranteedBalances = guaranteedBalances.removeFirst(trimTo, amount < 0 ? adjustment - amount : adjustment);
         }
-        if (guaranteedBalances.size() == 0 || last.height < blockchainHeight) {
+        size = guaranteedBalances.size();
+        if (size == 0 || guaranteedBalances.getHeight(size - 1) < blockchainHeight) {
             // this is the first transaction affecting this account in a newly added block
-            guaranteedBalances.add(new GuaranteedBalance(blockchainHeight, balance));
-        } else if (last.height == blockchainHeight) {
+            return guaranteedBalances.add(blockchainHeight, balance);
+        } else if (guaranteedBalances.getHeight(size - 1) == blockchainHeight) {
             // following transactions for same account in a newly added block
             // for the current block, guaranteedBalance (0 confirmations) must be same as balance
-            last.balance = balance;
-            last.ignore = false;
+            return guaranteedBalances.setLast(balance, false);
         } else {
             // should have been handled in the block popped off case
             throw new IllegalStateException("last guaranteed balance height exceeds blockchain height");
         }
     }
 
-    private static class GuaranteedBalance implements Comparable<GuaranteedBalance> {
+    // the balances and key of an account as of one update, never modified
+    public final class State {
 
-        final int height;
-        long balance;
-        boolean ignore;
+        private final byte[] publicKey;
+        private final long balance;
+        private final long unconfirmedBalance;
+        private final GuaranteedBalances guaranteedBalances;
 
-        private GuaranteedBalance(int height, long balance) {
-            this.height = height;
+        private State(byte[] publicKey, long balance, long unconfirmedBalance, GuaranteedBalances guaranteedBalances) {
+            this.publicKey = publicKey;
             this.balance = balance;
-            this.ignore = false;
+            this.unconfirmedBalance = unconfirmedBalance;
+            this.guaranteedBalances = guaranteedBalances;
+        }
+
+        public byte[] getPublicKey() {
+            return publicKey;
         }
 
-        @Override
-        public int compareTo(GuaranteedBalance o) {
-            if (this.height < o.height) {
-                return -1;
-            } else if (this.height > o.height) {
-                return 1;
+        public long getBalance() {
+            return balance;
+        }
+
+        public long getUnconfirmedBalance() {
+            return unconfirmedBalance;
+        }
+
+        public int getEffectiveBalance() {
+
+            Block lastBlock = Nxt.getBlockchain().getLastBlock();
+            if (lastBlock.getHeight() < Constants.TRANSPARENT_FORGING_BLOCK_3 && height < Constants.TRANSPARENT_FORGING_BLOCK_2) {
+
+                if (height == 0) {
+                    return (int)(balance / 100);
+                }
+                if (lastBlock.getHeight() - height < 1440) {
+                    return 0;
+                }
+                int receivedInlastBlock = 0;
+                for (Transaction transaction : lastBlock.getTransactions()) {
+                    if (transaction.getRecipientId().equals(id)) {
+                        receivedInlastBlock += transaction.getAmount();
+                    }
+                }
+                return (int)(balance / 100) - receivedInlastBlock;
+
+            } else {
+                return (int)(getGuaranteedBalance(1440) / 100);
             }
-            return 0;
+
         }
 
-        @Override
-        public String toString() {
-            return "height: " + height + ", guaranteed: " + balance;
+        public long getGuaranteedBalance(final int numberOfConfirmations) {
+            if (numberOfConfirmations >= Nxt.getBlockchain().getLastBlock().getHeight()) {
+                return 0;
+            }
+            if (numberOfConfirmations > maxTrackedBalanceConfirmations || numberOfConfirmations < 0) {
+                throw new IllegalArgumentException("Number of required confirmations must be between 0 and " + maxTrackedBalanceConfirmations);
+            }
+            if (guaranteedBalances.size() == 0) {
+                return 0;
+            }
+            int i = guaranteedBalances.floorIndex(Nxt.getBlockchain().getLastBlock().getHeight() - numberOfConfirmations);
+            if (i == -1) {
+                return 0;
+            }
+            while (guaranteedBalances.isIgnored(i) && i > 0) {
+                i--;
+            }
+            return guaranteedBalances.isIgnored(i) ? 0 : guaranteedBalances.getBalance(i);
+
+        }
+
+    }
+
+    // read-only copies of both asset balance maps as of one update
+    private static final class AssetBalances {
+
+        private final Map<Long, Long> assetBalances;
+        private final Map<Long, Long> unconfirmedAssetBalances;
+
+        private AssetBalances(LongLongMap assetBalances, LongLongMap unconfirmedAssetBalances) {
+            this.assetBalances = assetBalances == null ? Collections.<Long, Long>emptyMap()
+                    : Collections.unmodifiableMap(assetBalances.toMap());
+            this.unconfirmedAssetBalances = unconfirmedAssetBalances == null ? Collections.<Long, Long>emptyMap()
+                    : Collections.unmodifiableMap(unconfirmedAssetBalances.toMap());
+        }
+
+        private long getAssetBalance(Long assetId) {
+            Long balance = assetBalances.get(assetId);
+            return balance == null ? 0 : balance;
+        }
+
+        private long getUnconfirmedAssetBalance(Long assetId) {
+            Long balance = unconfirmedAssetBalances.get(assetId);
+            return balance == null ? 0 : balance;
+        }
+
+    }
+
+    // guaranteed balance records ordered by height, never modified once published, updates return a new instance
+    // records are appended to arrays shared with earlier instances past the end of all of them, so earlier instances
+    // never see those slots, and only the first and the last record change, which is why they are held in fields
+    private static final class GuaranteedBalances {
+
+        private static final GuaranteedBalances EMPTY = new GuaranteedBalances(new int[0], new long[0], new boolean[0],
+                0, 0, 0, 0, 0, false);
+
+        private final int[] heights;
+        private final long[] balances;
+        private final boolean[] ignored;
+        private final int start;
+        private final int size;
+        // added to all stored balances, wrapping long arithmetic keeps balance - offset + offset exact
+        private final long offset;
+        private final long firstBalance;
+        private final long lastBalance;
+        private final boolean lastIgnored;
+
+        private GuaranteedBalances(int[] heights, long[] balances, boolean[] ignored, int start, int size, long offset,
+                                   long firstBalance, long lastBalance, boolean lastIgnored) {
+            this.heights = heights;
+            this.balances = balances;
+            this.ignored = ignored;
+            this.start = start;
+            this.size = size;
+            this.offset = offset;
+            this.firstBalance = firstBalance;
+            this.lastBalance = lastBalance;
+            this.lastIgnored = lastIgnored;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int getHeight(int i) {
+            return heights[start + i];
         }
+
+        long getBalance(int i) {
+            return getStoredBalance(i) + offset;
+        }
+
+        boolean isIgnored(int i) {
+            return i == size - 1 ? lastIgnored : ignored[start + i];
+        }
+
+        GuaranteedBalances addToAll(long amount) {
+            return new GuaranteedBalances(heights, balances, ignored, start, size, offset + amount,
+                    firstBalance, lastBalance, lastIgnored);
+        }
+
+        GuaranteedBalances setLast(long balance, boolean ignore) {
+            return new GuaranteedBalances(heights, balances, ignored, start, size, offset,
+                    firstBalance, balance - offset, ignore);
+        }
+
+        // drops the first count records and adds amount to the stored balance of the new first one, which is not the last
+        GuaranteedBalances removeFirst(int count, long amount) {
+            return new GuaranteedBalances(heights, balances, ignored, start + count, size - count, offset,
+                    getStoredBalance(count) + amount, lastBalance, lastIgnored);
+        }
+
+        GuaranteedBalances add(int height, long balance) {
+            int[] heights = this.heights;
+            long[] balances = this.balances;
+            boolean[] ignored = this.ignored;
+            int start = this.start;
+            if (start + size == heights.length) {
+                heights = new int[Math.max(4, size * 2)];
+                balances = new long[heights.length];
+                ignored = new boolean[heights.length];
+                for (int i = 0; i < size; i++) {
+                    heights[i] = getHeight(i);
+                    balances[i] = getStoredBalance(i);
+                    ignored[i] = isIgnored(i);
+                }
+                start = 0;
+            } else if (size > 0) {
+                // the last record becomes an inner one, instances that see its slot read it from lastBalance instead
+                balances[start + size - 1] = lastBalance;
+                ignored[start + size - 1] = lastIgnored;
+            }
+            heights[start + size] = height;
+            long firstBalance = size == 0 ? balance - offset : size == 1 ? lastBalance : this.firstBalance;
+            return new GuaranteedBalances(heights, balances, ignored, start, size + 1, offset,
+                    firstBalance, balance - offset, false);
+        }
+
+        // index of the last record at or below height, -1 if there is none
+        int floorIndex(int height) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (getHeight(mid) <= height) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        private long getStoredBalance(int i) {
+            return i == size - 1 ? lastBalance : i == 0 ? firstBalance : balances[start + i];
+        }
+
     }
 
 }
@@ -0,0 +1,79 @@
+package nxt;
+
+import nxt.util.Listener;
+import nxt.util.RankTree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// accounts with a positive balance, ordered by descending balance
+public final class AccountRanking {
+
+    private static final RankTree ranking = new RankTree();
+    private static final Map<Long, Long> rankedBalances = new HashMap<>();
+
+    static {
+
+        Account.addListener(new Listener<Account>() {
+            @Override
+            public void notify(Account account) {
+                update(account.getId());
+            }
+        }, Account.Event.BALANCE);
+
+    }
+
+    static void init() {}
+
+    static synchronized void clear() {
+        ranking.clear();
+        rankedBalances.clear();
+    }
+
+    public static synchronized int getNumberOfRankedAccounts() {
+        return ranking.size();
+    }
+
+    public static synchronized List<Account> getTopAccounts(int limit, int offset) {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = Math.max(offset, 0); i < ranking.size() && accounts.size() < limit; i++) {
+            Account account = Account.getAccount(ranking.getId(i));
+            if (account != null) {
+                accounts.add(account);
+            }
+        }
+        return accounts;
+    }
+
+    // one based rank, 0 if the account has no balance
+    public static synchronized int getAccountRank(Account account) {
+        Long balance = rankedBalances.get(account.getId());
+        if (balance == null) {
+            return 0;
+        }
+        return ranking.rank(balance, account.getId()) + 1;
+    }
+
+    // notifications may be delivered late or for accounts removed since, so always index the current state
+    private static synchronized void update(Long accountId) {
+        Account account = Account.getAccount(accountId);
+        long balance = account == null ? 0 : account.getBalance();
+        Long rankedBalance = rankedBalances.get(accountId);
+        if (rankedBalance != null) {
+            if (rankedBalance == balance) {
+                return;
+            }
+            ranking.remove(rankedBalance, accountId);
+            rankedBalances.remove(accountId);
+        }
+        if (balance > 0) {
+            ranking.add(balance, accountId);
+            rankedBalances.put(accountId, balance);
+        }
+    }
+
+    private AccountRanking() {} // never
+
+}
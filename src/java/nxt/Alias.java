@@ -1,15 +1,22 @@
 package nxt;
 
+import nxt.util.NameIndex;
+
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public final class Alias {
 
     private static final ConcurrentMap<String, Alias> aliases = new ConcurrentHashMap<>();
     private static final ConcurrentMap<Long, Alias> aliasIdToAliasMappings = new ConcurrentHashMap<>();
     private static final Collection<Alias> allAliases = Collections.unmodifiableCollection(aliases.values());
+    private static final NameIndex<Alias> nameIndex = new NameIndex<>();
+    // the account of an alias never changes, so aliases are only ever appended here
+    private static final ConcurrentMap<Long, List<Alias>> accountAliases = new ConcurrentHashMap<>();
 
     public static Collection<Alias> getAllAliases() {
         return allAliases;
@@ -23,12 +30,28 @@ public final class Alias {
         return aliasIdToAliasMappings.get(id);
     }
 
+    public static List<Alias> getAliasesByAccount(Long accountId) {
+        List<Alias> aliasList = accountAliases.get(accountId);
+        return aliasList == null ? Collections.<Alias>emptyList() : Collections.unmodifiableList(aliasList);
+    }
+
+    public static List<Alias> searchAliases(String query, int limit) {
+        return nameIndex.search(query.toLowerCase(), limit);
+    }
+
     static void addOrUpdateAlias(Account account, Long transactionId, String aliasName, String aliasURI, int timestamp) {
         String normalizedAlias = aliasName.toLowerCase();
         Alias newAlias = new Alias(account, transactionId, aliasName, aliasURI, timestamp);
         Alias oldAlias = aliases.putIfAbsent(normalizedAlias, newAlias);
         if (oldAlias == null) {
             aliasIdToAliasMappings.putIfAbsent(transactionId, newAlias);
+            nameIndex.add(normalizedAlias, newAlias);
+            List<Alias> aliasList = accountAliases.get(account.getId());
+            if (aliasList == null) {
+                accountAliases.putIfAbsent(account.getId(), new CopyOnWriteArrayList<Alias>());
+                aliasList = accountAliases.get(account.getId());
+            }
+            aliasList.add(newAlias);
         } else {
             oldAlias.aliasURI = aliasURI.intern();
             oldAlias.timestamp = timestamp;
@@ -38,6 +61,8 @@ public final class Alias {
     static void clear() {
         aliases.clear();
         aliasIdToAliasMappings.clear();
+        nameIndex.clear();
+        accountAliases.clear();
     }
 
     private final Account account;
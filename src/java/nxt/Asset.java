@@ -1,6 +1,7 @@
 package nxt;
 
 import nxt.util.Convert;
+import nxt.util.NameIndex;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -14,6 +15,7 @@ public final class Asset {
     private static final ConcurrentMap<Long, Asset> assets = new ConcurrentHashMap<>();
     private static final ConcurrentMap<String, List<Asset>> assetNameToAssetMappings = new ConcurrentHashMap<>();
     private static final Collection<Asset> allAssets = Collections.unmodifiableCollection(assets.values());
+    private static final NameIndex<Asset> nameIndex = new NameIndex<>();
 
     public static Collection<Asset> getAllAssets() {
         return allAssets;
@@ -24,7 +26,12 @@ public final class Asset {
     }
 
     public static List<Asset> getAssets(String name) {
-        return Collections.unmodifiableList(assetNameToAssetMappings.get(name));
+        List<Asset> assetList = assetNameToAssetMappings.get(name);
+        return assetList == null ? Collections.<Asset>emptyList() : Collections.unmodifiableList(assetList);
+    }
+
+    public static List<Asset> searchAssets(String query, int limit) {
+        return nameIndex.search(query.toLowerCase(), limit);
     }
 
     static void addAsset(Long assetId, Long senderAccountId, String name, String description, int quantity) {
@@ -38,17 +45,20 @@ public final class Asset {
             assetNameToAssetMappings.put(name.toLowerCase(), assetList);
         }
         assetList.add(asset);
+        nameIndex.add(name.toLowerCase(), asset);
     }
 
     static void removeAsset(Long assetId) {
         Asset asset = Asset.assets.remove(assetId);
         List<Asset> assetList = assetNameToAssetMappings.get(asset.getName().toLowerCase());
         assetList.remove(asset);
+        nameIndex.remove(asset.getName().toLowerCase(), asset);
     }
 
     static void clear() {
         Asset.assets.clear();
         Asset.assetNameToAssetMappings.clear();
+        Asset.nameIndex.clear();
     }
 
     private final Long assetId;
@@ -0,0 +1,86 @@
+package nxt;
+
+import nxt.util.LongLongMap;
+import nxt.util.RankTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// accounts holding each asset, ordered by descending quantity
+public final class AssetHolders {
+
+    public static final class Holder {
+
+        private final Long accountId;
+        private final long quantity;
+
+        private Holder(Long accountId, long quantity) {
+            this.accountId = accountId;
+            this.quantity = quantity;
+        }
+
+        public Long getAccountId() { return accountId; }
+
+        public long getQuantity() { return quantity; }
+
+    }
+
+    private static final Map<Long, RankTree> holders = new HashMap<>();
+    // indexed quantity by account, per asset
+    private static final Map<Long, LongLongMap> quantities = new HashMap<>();
+
+    static void init() {}
+
+    static synchronized void clear() {
+        holders.clear();
+        quantities.clear();
+    }
+
+    public static synchronized int getNumberOfHolders(Long assetId) {
+        RankTree assetHolders = holders.get(assetId);
+        return assetHolders == null ? 0 : assetHolders.size();
+    }
+
+    public static synchronized List<Holder> getHolders(Long assetId, int limit, int offset) {
+        RankTree assetHolders = holders.get(assetId);
+        if (assetHolders == null) {
+            return Collections.emptyList();
+        }
+        List<Holder> result = new ArrayList<>();
+        for (int i = Math.max(offset, 0); i < assetHolders.size() && result.size() < limit; i++) {
+            result.add(new Holder(assetHolders.getId(i), assetHolders.getScore(i)));
+        }
+        return result;
+    }
+
+    // called by Account with the new quantity on every change of an asset balance, including those undoing a block
+    static synchronized void update(Long accountId, Long assetId, long quantity) {
+        LongLongMap assetQuantities = quantities.get(assetId);
+        if (assetQuantities == null) {
+            assetQuantities = new LongLongMap();
+            quantities.put(assetId, assetQuantities);
+        }
+        long indexedQuantity = assetQuantities.get(accountId);
+        if (indexedQuantity == quantity) {
+            return;
+        }
+        RankTree assetHolders = holders.get(assetId);
+        if (assetHolders == null) {
+            assetHolders = new RankTree();
+            holders.put(assetId, assetHolders);
+        }
+        if (indexedQuantity > 0) {
+            assetHolders.remove(indexedQuantity, accountId);
+        }
+        if (quantity > 0) {
+            assetHolders.add(quantity, accountId);
+        }
+        assetQuantities.add(accountId, quantity - indexedQuantity);
+    }
+
+    private AssetHolders() {} // never
+
+}
@@ -0,0 +1,136 @@
+package nxt;
+
+import nxt.crypto.Crypto;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// not thread safe, access is guarded by BlockchainProcessorImpl
+final class BlockTemplate {
+
+    private final Long previousBlockId;
+    private final SortedMap<Long, TransactionImpl> transactions = new TreeMap<>();
+    private final SortedMap<Long, byte[]> transactionBytes = new TreeMap<>();
+    private final Map<TransactionType, Set<String>> duplicates = new HashMap<>();
+    private final Map<Long, Long> accumulatedAmounts = new HashMap<>();
+    // selected transactions in the order used to build the template, highest fee per byte first
+    private final SortedSet<TransactionImpl> prioritizedTransactions = new TreeSet<>();
+
+    private long totalAmount;
+    private int totalFee;
+    private int payloadLength;
+    private int minExpiration = Integer.MAX_VALUE;
+    private byte[] payloadHash;
+
+    BlockTemplate(Long previousBlockId) {
+        this.previousBlockId = previousBlockId;
+    }
+
+    Long getPreviousBlockId() {
+        return previousBlockId;
+    }
+
+    List<TransactionImpl> getTransactions() {
+        return new ArrayList<>(transactions.values());
+    }
+
+    int getTransactionCount() {
+        return transactions.size();
+    }
+
+    long getTotalAmount() {
+        return totalAmount;
+    }
+
+    int getTotalFee() {
+        return totalFee;
+    }
+
+    int getPayloadLength() {
+        return payloadLength;
+    }
+
+    byte[] getPayloadHash() {
+        if (payloadHash == null) {
+            MessageDigest digest = Crypto.sha256();
+            for (byte[] bytes : transactionBytes.values()) {
+                digest.update(bytes);
+            }
+            payloadHash = digest.digest();
+        }
+        return payloadHash.clone();
+    }
+
+    boolean contains(Long transactionId) {
+        return transactions.containsKey(transactionId);
+    }
+
+    // true if the transaction does not fit in the payload but would have been selected before the cheapest
+    // transaction in the template, the template then has to be rebuilt to give it a place
+    boolean isOutbidBy(TransactionImpl transaction) {
+        return ! prioritizedTransactions.isEmpty() && payloadLength + transaction.getSize() > Constants.MAX_PAYLOAD_LENGTH
+                && ! transactions.containsKey(transaction.getId()) && transaction.compareTo(prioritizedTransactions.last()) < 0;
+    }
+
+    // all selected transactions must still be acceptable in a block with this timestamp
+    boolean isValidAt(int blockTimestamp) {
+        return minExpiration >= blockTimestamp;
+    }
+
+    // returns true if the transaction was added to the template
+    boolean add(TransactionImpl transaction, int blockTimestamp) {
+
+        int transactionLength = transaction.getSize();
+        if (transactions.containsKey(transaction.getId()) || payloadLength + transactionLength > Constants.MAX_PAYLOAD_LENGTH) {
+            return false;
+        }
+
+        Long sender = transaction.getSenderId();
+        Long accumulatedAmount = accumulatedAmounts.get(sender);
+        if (accumulatedAmount == null) {
+            accumulatedAmount = 0L;
+        }
+
+        long amount = (transaction.getAmount() + transaction.getFee()) * 100L;
+        Account senderAccount = Account.getAccount(sender);
+        if (senderAccount == null || accumulatedAmount + amount > senderAccount.getBalance()) {
+            return false;
+        }
+
+        if (transaction.getTimestamp() > blockTimestamp + 15 || (transaction.getExpiration() < blockTimestamp)) {
+            return false;
+        }
+
+        if (transaction.isDuplicate(duplicates)) {
+            return false;
+        }
+
+        try {
+            transaction.validateAttachment();
+        } catch (NxtException.ValidationException e) {
+            return false;
+        }
+
+        accumulatedAmounts.put(sender, accumulatedAmount + amount);
+
+        transactions.put(transaction.getId(), transaction);
+        prioritizedTransactions.add(transaction);
+        transactionBytes.put(transaction.getId(), transaction.getBytes());
+        payloadHash = null;
+        payloadLength += transactionLength;
+        totalAmount += transaction.getAmount();
+        totalFee += transaction.getFee();
+        minExpiration = Math.min(minExpiration, transaction.getExpiration());
+        return true;
+
+    }
+
+}
@@ -49,6 +49,37 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     private final Listeners<Block, Event> blockListeners = new Listeners<>();
     private volatile Peer lastBlockchainFeeder;
 
+    private final Object blockTemplateLock = new Object();
+    private BlockTemplate blockTemplate;
+
+    private final Runnable refreshBlockTemplateThread = new Runnable() {
+
+        @Override
+        public void run() {
+
+            try {
+                try {
+                    if (Generator.getAllGenerators().isEmpty()) {
+                        return;
+                    }
+                    synchronized (blockTemplateLock) {
+                        if (blockTemplate == null) {
+                            blockTemplate = buildBlockTemplate(Convert.getEpochTime());
+                        }
+                    }
+                } catch (Exception e) {
+                    Logger.logDebugMessage("Error refreshing block template", e);
+                }
+            } catch (Throwable t) {
+                Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
+                t.printStackTrace();
+                System.exit(1);
+            }
+
+        }
+
+    };
+
     private final Runnable getMoreBlocksThread = new Runnable() {
 
         private final JSONStreamAware getCumulativeDifficultyRequest;
@@ -340,7 +371,58 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             }
         });
 
+        Listener<Block> invalidateBlockTemplate = new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                invalidateBlockTemplate();
+            }
+        };
+        blockListeners.addListener(invalidateBlockTemplate, Event.BLOCK_PUSHED);
+        blockListeners.addListener(invalidateBlockTemplate, Event.BLOCK_POPPED);
+
+        transactionProcessor.addListener(new Listener<List<Transaction>>() {
+            @Override
+            public void notify(List<Transaction> transactions) {
+                synchronized (blockTemplateLock) {
+                    if (blockTemplate == null) {
+                        return;
+                    }
+                    int blockTimestamp = Convert.getEpochTime();
+                    for (Transaction transaction : transactions) {
+                        if (transaction.getReferencedTransactionId() == null
+                                || TransactionDb.hasTransaction(transaction.getReferencedTransactionId())) {
+                            if (! blockTemplate.add((TransactionImpl) transaction, blockTimestamp)
+                                    && blockTemplate.isOutbidBy((TransactionImpl) transaction)) {
+                                // a full template is only appended to, so it is rebuilt by fee per byte,
+                                // by the refresh thread within a second or by the next generateBlock call
+                                blockTemplate = null;
+                                return;
+                            }
+                        }
+                    }
+                }
+            }
+        }, TransactionProcessor.Event.ADDED_UNCONFIRMED_TRANSACTIONS);
+
+        transactionProcessor.addListener(new Listener<List<Transaction>>() {
+            @Override
+            public void notify(List<Transaction> transactions) {
+                synchronized (blockTemplateLock) {
+                    if (blockTemplate == null) {
+                        return;
+                    }
+                    for (Transaction transaction : transactions) {
+                        if (blockTemplate.contains(transaction.getId())) {
+                            blockTemplate = null;
+                            return;
+                        }
+                    }
+                }
+            }
+        }, TransactionProcessor.Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
+
         ThreadPool.scheduleThread(getMoreBlocksThread, 1);
+        ThreadPool.scheduleThread(refreshBlockTemplateThread, 1);
 
     }
 
@@ -445,7 +527,17 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         return digest.digest();
     }
 
+    // account listeners are notified once per changed account, after the blockchain lock is released
     private void pushBlock(final BlockImpl block) throws BlockNotAcceptedException {
+        Account.beginChangeSet();
+        try {
+            doPushBlock(block);
+        } finally {
+            Account.endChangeSet();
+        }
+    }
+
+    private void doPushBlock(final BlockImpl block) throws BlockNotAcceptedException {
 
         int curTime = Convert.getEpochTime();
 
@@ -594,6 +686,15 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
     }
 
     private boolean popLastBlock() throws TransactionType.UndoNotSupportedException {
+        Account.beginChangeSet();
+        try {
+            return doPopLastBlock();
+        } finally {
+            Account.endChangeSet();
+        }
+    }
+
+    private boolean doPopLastBlock() throws TransactionType.UndoNotSupportedException {
         try {
             BlockImpl block;
 
@@ -623,7 +724,14 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         return true;
     }
 
-    void generateBlock(String secretPhrase) {
+    private void invalidateBlockTemplate() {
+        synchronized (blockTemplateLock) {
+            blockTemplate = null;
+        }
+    }
+
+    // called while holding blockTemplateLock, so it must not acquire the blockchain lock
+    private BlockTemplate buildBlockTemplate(int blockTimestamp) {
 
         Set<TransactionImpl> sortedTransactions = new TreeSet<>();
 
@@ -633,81 +741,61 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             }
         }
 
-        SortedMap<Long, TransactionImpl> newTransactions = new TreeMap<>();
-        Map<TransactionType, Set<String>> duplicates = new HashMap<>();
-        Map<Long, Long> accumulatedAmounts = new HashMap<>();
-
-        int totalAmount = 0;
-        int totalFee = 0;
-        int payloadLength = 0;
-
-        int blockTimestamp = Convert.getEpochTime();
+        BlockTemplate template = new BlockTemplate(blockchain.getLastBlock().getId());
 
-        while (payloadLength <= Constants.MAX_PAYLOAD_LENGTH) {
+        while (template.getPayloadLength() <= Constants.MAX_PAYLOAD_LENGTH) {
 
-            int prevNumberOfNewTransactions = newTransactions.size();
+            int prevNumberOfNewTransactions = template.getTransactionCount();
 
             for (TransactionImpl transaction : sortedTransactions) {
-
-                int transactionLength = transaction.getSize();
-                if (newTransactions.get(transaction.getId()) != null || payloadLength + transactionLength > Constants.MAX_PAYLOAD_LENGTH) {
-                    continue;
-                }
-
-                Long sender = transaction.getSenderId();
-                Long accumulatedAmount = accumulatedAmounts.get(sender);
-                if (accumulatedAmount == null) {
-                    accumulatedAmount = 0L;
-                }
-
-                long amount = (transaction.getAmount() + transaction.getFee()) * 100L;
-                if (accumulatedAmount + amount > Account.getAccount(sender).getBalance()) {
-                    continue;
-                }
-
-                if (transaction.getTimestamp() > blockTimestamp + 15 || (transaction.getExpiration() < blockTimestamp)) {
-                    continue;
-                }
-
-                if (transaction.isDuplicate(duplicates)) {
-                    continue;
-                }
-
-                try {
-                    transaction.validateAttachment();
-                } catch (NxtException.ValidationException e) {
-                    continue;
-                }
-
-                accumulatedAmounts.put(sender, accumulatedAmount + amount);
-
-                newTransactions.put(transaction.getId(), transaction);
-                payloadLength += transactionLength;
-                totalAmount += transaction.getAmount();
-                totalFee += transaction.getFee();
-
+                template.add(transaction, blockTimestamp);
             }
 
-            if (newTransactions.size() == prevNumberOfNewTransactions) {
+            if (template.getTransactionCount() == prevNumberOfNewTransactions) {
                 break;
             }
         }
 
-        final byte[] publicKey = Crypto.getPublicKey(secretPhrase);
+        return template;
+    }
 
-        MessageDigest digest = Crypto.sha256();
-        for (Transaction transaction : newTransactions.values()) {
-            digest.update(transaction.getBytes());
+    void generateBlock(String secretPhrase) {
+
+        int blockTimestamp = Convert.getEpochTime();
+
+        Long templatePreviousBlockId;
+        List<TransactionImpl> newTransactions;
+        long totalAmount;
+        int totalFee;
+        int payloadLength;
+        byte[] payloadHash;
+
+        synchronized (blockTemplateLock) {
+            if (blockTemplate == null || ! blockTemplate.getPreviousBlockId().equals(blockchain.getLastBlock().getId())
+                    || ! blockTemplate.isValidAt(blockTimestamp)) {
+                blockTemplate = buildBlockTemplate(blockTimestamp);
+            }
+            templatePreviousBlockId = blockTemplate.getPreviousBlockId();
+            newTransactions = blockTemplate.getTransactions();
+            totalAmount = blockTemplate.getTotalAmount();
+            totalFee = blockTemplate.getTotalFee();
+            payloadLength = blockTemplate.getPayloadLength();
+            payloadHash = blockTemplate.getPayloadHash();
         }
 
-        byte[] payloadHash = digest.digest();
+        final byte[] publicKey = Crypto.getPublicKey(secretPhrase);
 
         BlockImpl previousBlock = blockchain.getLastBlock();
         if (previousBlock.getHeight() < Constants.TRANSPARENT_FORGING_BLOCK) {
             Logger.logDebugMessage("Generate block below " + Constants.TRANSPARENT_FORGING_BLOCK + " no longer supported");
             return;
         }
+        if (! previousBlock.getId().equals(templatePreviousBlockId)) {
+            Logger.logDebugMessage("Last block changed while generating block, will retry");
+            return;
+        }
 
+        MessageDigest digest = Crypto.sha256();
         digest.update(previousBlock.getGenerationSignature());
         byte[] generationSignature = digest.digest(publicKey);
 
@@ -719,7 +807,7 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
         try {
 
             block = new BlockImpl(version, blockTimestamp, previousBlock.getId(), totalAmount, totalFee, payloadLength,
-                        payloadHash, publicKey, generationSignature, null, previousBlockHash, new ArrayList<>(newTransactions.values()));
+                        payloadHash, publicKey, generationSignature, null, previousBlockHash, newTransactions);
 
         } catch (NxtException.ValidationException e) {
             // shouldn't happen because all transactions are already validated
@@ -782,6 +870,10 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
             Poll.clear();
             Trade.clear();
             Vote.clear();
+            Statistics.clear();
+            Candles.clear();
+            AccountRanking.clear();
+            AssetHolders.clear();
             transactionProcessor.clear();
             try (Connection con = Db.getConnection(); PreparedStatement pstmt = con.prepareStatement("SELECT * FROM block ORDER BY db_id ASC")) {
                 Long currentBlockId = Genesis.GENESIS_BLOCK_ID;
@@ -795,7 +887,12 @@ final class BlockchainProcessorImpl implements BlockchainProcessor {
                         }
                         blockchain.setLastBlock(currentBlock);
                         blockListeners.notify(currentBlock, Event.BEFORE_BLOCK_APPLY);
-                        transactionProcessor.apply(currentBlock);
+                        Account.beginChangeSet();
+                        try {
+                            transactionProcessor.apply(currentBlock);
+                        } finally {
+                            Account.endChangeSet();
+                        }
                         blockListeners.notify(currentBlock, Event.BLOCK_SCANNED);
                         currentBlockId = currentBlock.getNextBlockId();
                     }
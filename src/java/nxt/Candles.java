@@ -0,0 +1,261 @@
+package nxt;
+
+import nxt.util.Listener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// open, high, low, close and volume of the trades of each asset, aggregated per time interval
+public final class Candles {
+
+    public static enum Interval {
+
+        MINUTE("1m", 60, 1 << 13), HOUR("1h", 3600, 1 << 13), DAY("1d", 86400, 1 << 12);
+
+        private final String name;
+        private final int seconds;
+        private final int maxCandles;
+
+        private Interval(String name, int seconds, int maxCandles) {
+            this.name = name;
+            this.seconds = seconds;
+            this.maxCandles = maxCandles;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSeconds() {
+            return seconds;
+        }
+
+        // start of the candle containing the timestamp, aligned to UTC rather than to the epoch
+        int getStart(int timestamp) {
+            return timestamp - (timestamp + EPOCH_OFFSET) % seconds;
+        }
+
+        public static Interval fromName(String name) {
+            for (Interval interval : values()) {
+                if (interval.name.equals(name)) {
+                    return interval;
+                }
+            }
+            return null;
+        }
+
+    }
+
+    public static final class Candle {
+
+        private final int timestamp;
+        private final long open, high, low, close;
+        private final long volume;
+        private final int numberOfTrades;
+
+        private Candle(int timestamp, long open, long high, long low, long close, long volume, int numberOfTrades) {
+            this.timestamp = timestamp;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+            this.volume = volume;
+            this.numberOfTrades = numberOfTrades;
+        }
+
+        public int getTimestamp() { return timestamp; }
+
+        public long getOpen() { return open; }
+
+        public long getHigh() { return high; }
+
+        public long getLow() { return low; }
+
+        public long getClose() { return close; }
+
+        public long getVolume() { return volume; }
+
+        public int getNumberOfTrades() { return numberOfTrades; }
+
+    }
+
+    private static final int EPOCH_OFFSET = (int)((Constants.EPOCH_BEGINNING / 1000) % 86400);
+
+    private static final ConcurrentMap<Long, CandleSeries[]> candles = new ConcurrentHashMap<>();
+
+    static {
+
+        Trade.addListener(new Listener<Trade>() {
+            @Override
+            public void notify(Trade trade) {
+                CandleSeries[] assetCandles = candles.get(trade.getAssetId());
+                if (assetCandles == null) {
+                    assetCandles = new CandleSeries[Interval.values().length];
+                    for (Interval interval : Interval.values()) {
+                        assetCandles[interval.ordinal()] = new CandleSeries(interval);
+                    }
+                    candles.put(trade.getAssetId(), assetCandles);
+                }
+                for (CandleSeries candleSeries : assetCandles) {
+                    candleSeries.add(trade.getTimestamp(), trade.getPrice(), trade.getQuantity());
+                }
+            }
+        }, Trade.Event.TRADE);
+
+        Nxt.getBlockchainProcessor().addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                for (Map.Entry<Long, CandleSeries[]> entry : candles.entrySet()) {
+                    for (CandleSeries candleSeries : entry.getValue()) {
+                        candleSeries.rollback(entry.getKey(), block.getTimestamp());
+                    }
+                }
+            }
+        }, BlockchainProcessor.Event.BEFORE_BLOCK_UNDO);
+
+    }
+
+    static void init() {}
+
+    static void clear() {
+        candles.clear();
+    }
+
+    // candles with at least one trade and a start time in the [from, to] range, oldest first
+    public static List<Candle> getCandles(Long assetId, Interval interval, int from, int to) {
+        CandleSeries[] assetCandles = candles.get(assetId);
+        if (assetCandles == null) {
+            return Collections.emptyList();
+        }
+        return assetCandles[interval.ordinal()].getCandles(from, to);
+    }
+
+    // candles in time order in a circular buffer of primitive arrays, the oldest are dropped once full
+    private static final class CandleSeries {
+
+        private final Interval interval;
+        private int[] timestamps = new int[4];
+        private long[] opens = new long[4];
+        private long[] highs = new long[4];
+        private long[] lows = new long[4];
+        private long[] closes = new long[4];
+        private long[] volumes = new long[4];
+        private int[] numberOfTrades = new int[4];
+        private int head;
+        private int size;
+
+        private CandleSeries(Interval interval) {
+            this.interval = interval;
+        }
+
+        private int index(int i) {
+            return (head + i) & (timestamps.length - 1);
+        }
+
+        private synchronized void add(int timestamp, long price, int quantity) {
+            int start = interval.getStart(timestamp);
+            if (size > 0 && timestamps[index(size - 1)] == start) {
+                int i = index(size - 1);
+                highs[i] = Math.max(highs[i], price);
+                lows[i] = Math.min(lows[i], price);
+                closes[i] = price;
+                volumes[i] += quantity;
+                numberOfTrades[i] += 1;
+                return;
+            }
+            if (size == timestamps.length) {
+                if (size < interval.maxCandles) {
+                    grow();
+                } else {
+                    head = index(1);
+                    size -= 1;
+                }
+            }
+            int i = index(size);
+            timestamps[i] = start;
+            opens[i] = price;
+            highs[i] = price;
+            lows[i] = price;
+            closes[i] = price;
+            volumes[i] = quantity;
+            numberOfTrades[i] = 1;
+            size += 1;
+        }
+
+        // trades of the block being undone all fall into the last candle, which is rebuilt from the earlier trades
+        private synchronized void rollback(Long assetId, int blockTimestamp) {
+            int start = interval.getStart(blockTimestamp);
+            if (size == 0 || timestamps[index(size - 1)] != start) {
+                return;
+            }
+            size -= 1;
+            List<Trade> trades = Trade.getTrades(assetId);
+            int first = trades.size();
+            while (first > 0 && trades.get(first - 1).getTimestamp() >= start) {
+                first -= 1;
+            }
+            for (int i = first; i < trades.size(); i++) {
+                Trade trade = trades.get(i);
+                if (trade.getTimestamp() < blockTimestamp) {
+                    add(trade.getTimestamp(), trade.getPrice(), trade.getQuantity());
+                }
+            }
+        }
+
+        private synchronized List<Candle> getCandles(int from, int to) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (timestamps[index(mid)] < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            List<Candle> result = new ArrayList<>();
+            for (int j = low; j < size && timestamps[index(j)] <= to; j++) {
+                int i = index(j);
+                result.add(new Candle(timestamps[i], opens[i], highs[i], lows[i], closes[i], volumes[i], numberOfTrades[i]));
+            }
+            return result;
+        }
+
+        private void grow() {
+            int length = timestamps.length * 2;
+            int[] newTimestamps = new int[length];
+            long[] newOpens = new long[length];
+            long[] newHighs = new long[length];
+            long[] newLows = new long[length];
+            long[] newCloses = new long[length];
+            long[] newVolumes = new long[length];
+            int[] newNumberOfTrades = new int[length];
+            for (int j = 0; j < size; j++) {
+                int i = index(j);
+                newTimestamps[j] = timestamps[i];
+                newOpens[j] = opens[i];
+                newHighs[j] = highs[i];
+                newLows[j] = lows[i];
+                newCloses[j] = closes[i];
+                newVolumes[j] = volumes[i];
+                newNumberOfTrades[j] = numberOfTrades[i];
+            }
+            timestamps = newTimestamps;
+            opens = newOpens;
+            highs = newHighs;
+            lows = newLows;
+            closes = newCloses;
+            volumes = newVolumes;
+            numberOfTrades = newNumberOfTrades;
+            head = 0;
+        }
+
+    }
+
+    private Candles() {} // never
+
+}
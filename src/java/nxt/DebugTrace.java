@@ -42,25 +42,25 @@ public final class DebugTrace {
                 debugTrace.trace(trade);
             }
         }, Trade.Event.TRADE);
-        Account.addListener(new Listener<Account>() {
+        Account.addImmediateListener(new Listener<Account>() {
             @Override
             public void notify(Account account) {
                 debugTrace.trace(account);
             }
         }, Account.Event.BALANCE);
-        Account.addListener(new Listener<Account>() {
+        Account.addImmediateListener(new Listener<Account>() {
             @Override
             public void notify(Account account) {
                 debugTrace.trace(account);
             }
         }, Account.Event.UNCONFIRMED_BALANCE);
-        Account.addListener(new Listener<Account>() {
+        Account.addImmediateListener(new Listener<Account>() {
             @Override
             public void notify(Account account) {
                 debugTrace.traceAssets(account);
             }
         }, Account.Event.ASSET_BALANCE);
-        Account.addListener(new Listener<Account>() {
+        Account.addImmediateListener(new Listener<Account>() {
             @Override
             public void notify(Account account) {
                 debugTrace.traceAssets(account);
@@ -150,10 +150,10 @@ public final class DebugTrace {
         if (!include(account.getId())) {
             return;
         }
-        for (Map.Entry<Long,Integer> mapEntry : account.getAssetBalances().entrySet()) {
+        for (Map.Entry<Long,Long> mapEntry : account.getAssetBalances().entrySet()) {
             log(getAssetValues(account.getId(), mapEntry.getKey(), mapEntry.getValue(), false));
         }
-        for (Map.Entry<Long,Integer> mapEntry : account.getUnconfirmedAssetBalances().entrySet()) {
+        for (Map.Entry<Long,Long> mapEntry : account.getUnconfirmedAssetBalances().entrySet()) {
             log(getAssetValues(account.getId(), mapEntry.getKey(), mapEntry.getValue(), true));
         }
     }
@@ -232,7 +232,7 @@ public final class DebugTrace {
         return map;
     }
 
-    private Map<String,String> getAssetValues(Long accountId, Long assetId, Integer quantity, boolean unconfirmed) {
+    private Map<String,String> getAssetValues(Long accountId, Long assetId, Long quantity, boolean unconfirmed) {
         Map<String,String> map = new HashMap<>();
         map.put("account", Convert.toUnsignedLong(accountId));
         map.put("asset", Convert.toUnsignedLong(assetId));
@@ -159,6 +159,11 @@ public final class Nxt {
             Db.init();
             BlockchainProcessorImpl.getInstance();
             TransactionProcessorImpl.getInstance();
+            Trade.init();
+            Candles.init();
+            Statistics.init();
+            AccountRanking.init();
+            AssetHolders.init();
             Peers.init();
             Generator.init();
             API.init();
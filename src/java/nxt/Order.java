@@ -2,65 +2,188 @@ package nxt;
 
 import nxt.util.Convert;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 public abstract class Order {
 
-    private static final SortedSet<? extends Order> emptySortedSet = Collections.unmodifiableSortedSet(new ConcurrentSkipListSet<Order>());
+    private static final SortedSet<? extends Order> emptySortedSet = Collections.unmodifiableSortedSet(new TreeSet<Order>());
 
     static void clear() {
         Ask.askOrders.clear();
-        Ask.sortedAskOrders.clear();
+        Ask.askOrderBooks.clear();
+        Ask.accountAskOrders.clear();
         Bid.bidOrders.clear();
-        Bid.sortedBidOrders.clear();
+        Bid.bidOrderBooks.clear();
+        Bid.accountBidOrders.clear();
     }
 
-    private static void matchOrders(Long assetId) {
+    // the book is never left crossed, so only the newly added order can match, and it is always first on its side
+    private static void matchOrders(Long assetId, Order newOrder) {
 
-        SortedSet<Ask> sortedAssetAskOrders = Ask.sortedAskOrders.get(assetId);
-        SortedSet<Bid> sortedAssetBidOrders = Bid.sortedBidOrders.get(assetId);
+        OrderBook<Ask> askOrderBook = Ask.askOrderBooks.get(assetId);
+        OrderBook<Bid> bidOrderBook = Bid.bidOrderBooks.get(assetId);
 
-        if (sortedAssetAskOrders == null || sortedAssetBidOrders == null) {
+        if (askOrderBook == null || bidOrderBook == null) {
             return;
         }
 
-        while (!sortedAssetAskOrders.isEmpty() && !sortedAssetBidOrders.isEmpty()) {
+        boolean isAsk = newOrder instanceof Ask;
+        Block lastBlock = Nxt.getBlockchain().getLastBlock();
 
-            Ask askOrder = sortedAssetAskOrders.first();
-            Bid bidOrder = sortedAssetBidOrders.first();
+        while (newOrder.quantity > 0) {
+
+            Order makerOrder = isAsk ? bidOrderBook.getFirst() : askOrderBook.getFirst();
+            if (makerOrder == null) {
+                break;
+            }
+            Order askOrder = isAsk ? newOrder : makerOrder;
+            Order bidOrder = isAsk ? makerOrder : newOrder;
 
             if (askOrder.getPrice() > bidOrder.getPrice()) {
                 break;
             }
 
-            int quantity = Math.min(((Order)askOrder).quantity, ((Order)bidOrder).quantity);
+            int quantity = Math.min(askOrder.quantity, bidOrder.quantity);
             long price = askOrder.getHeight() < bidOrder.getHeight() || (askOrder.getHeight() == bidOrder.getHeight() && askOrder.getId() < bidOrder.getId()) ? askOrder.getPrice() : bidOrder.getPrice();
 
-            Block lastBlock=Nxt.getBlockchain().getLastBlock();
-            int timeStamp=lastBlock.getTimestamp();
-            
-            Trade.addTrade(assetId, timeStamp, lastBlock.getId(), askOrder.getId(), bidOrder.getId(), quantity, price);
-
-            if ((((Order)askOrder).quantity -= quantity) == 0) {
-                Ask.removeOrder(askOrder.getId());
+            Trade.addTrade(assetId, lastBlock.getTimestamp(), lastBlock.getId(), askOrder.getId(), bidOrder.getId(), quantity, price);
+
+            askOrder.quantity -= quantity;
+            bidOrder.quantity -= quantity;
+            if (makerOrder.quantity == 0) {
+                if (isAsk) {
+                    Bid.bidOrders.remove(makerOrder.getId());
+                    bidOrderBook.removeFirst();
+                    Bid.accountBidOrders.remove((Bid)makerOrder);
+                } else {
+                    Ask.askOrders.remove(makerOrder.getId());
+                    askOrderBook.removeFirst();
+                    Ask.accountAskOrders.remove((Ask)makerOrder);
+                }
+            } else if (isAsk) {
+                bidOrderBook.invalidate();
+            } else {
+                askOrderBook.invalidate();
             }
+
             askOrder.getAccount().addToBalanceAndUnconfirmedBalance(quantity * price);
             askOrder.getAccount().addToAssetBalance(assetId, -quantity);
 
-            if ((((Order)bidOrder).quantity -= quantity) == 0) {
-                Bid.removeOrder(bidOrder.getId());
-            }
             bidOrder.getAccount().addToAssetAndUnconfirmedAssetBalance(assetId, quantity);
             bidOrder.getAccount().addToBalance(-quantity * price);
             bidOrder.getAccount().addToUnconfirmedBalance(quantity * (bidOrder.getPrice() - price));
 
         }
 
+        if (newOrder.quantity == 0) {
+            if (isAsk) {
+                Ask.removeOrder(newOrder.getId());
+            } else {
+                Bid.removeOrder(newOrder.getId());
+            }
+        } else if (isAsk) {
+            askOrderBook.invalidate();
+        } else {
+            bidOrderBook.invalidate();
+        }
+
+    }
+
+    // open orders of each account, grouped by asset, only modified by the block thread
+    private static final class AccountOrders<T extends Order> {
+
+        private final ConcurrentMap<Long, ConcurrentMap<Long, Set<T>>> orders = new ConcurrentHashMap<>();
+
+        private void add(T order) {
+            ConcurrentMap<Long, Set<T>> accountOrders = orders.get(order.getAccount().getId());
+            if (accountOrders == null) {
+                accountOrders = new ConcurrentHashMap<>();
+                orders.put(order.getAccount().getId(), accountOrders);
+            }
+            Set<T> assetOrders = accountOrders.get(order.getAssetId());
+            if (assetOrders == null) {
+                assetOrders = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+                accountOrders.put(order.getAssetId(), assetOrders);
+            }
+            assetOrders.add(order);
+        }
+
+        private void remove(T order) {
+            ConcurrentMap<Long, Set<T>> accountOrders = orders.get(order.getAccount().getId());
+            if (accountOrders == null) {
+                return;
+            }
+            Set<T> assetOrders = accountOrders.get(order.getAssetId());
+            if (assetOrders == null) {
+                return;
+            }
+            assetOrders.remove(order);
+            if (assetOrders.isEmpty()) {
+                accountOrders.remove(order.getAssetId());
+                if (accountOrders.isEmpty()) {
+                    orders.remove(order.getAccount().getId());
+                }
+            }
+        }
+
+        // all open orders of the account if assetId is null
+        private List<T> get(Long accountId, Long assetId) {
+            ConcurrentMap<Long, Set<T>> accountOrders = orders.get(accountId);
+            if (accountOrders == null) {
+                return Collections.emptyList();
+            }
+            List<T> result = new ArrayList<>();
+            if (assetId == null) {
+                for (Set<T> assetOrders : accountOrders.values()) {
+                    result.addAll(assetOrders);
+                }
+            } else {
+                Set<T> assetOrders = accountOrders.get(assetId);
+                if (assetOrders != null) {
+                    result.addAll(assetOrders);
+                }
+            }
+            return result;
+        }
+
+        private void clear() {
+            orders.clear();
+        }
+
+    }
+
+    public static final class DepthLevel {
+
+        private final long price;
+        private final long quantity;
+        private final int numberOfOrders;
+
+        DepthLevel(long price, long quantity, int numberOfOrders) {
+            this.price = price;
+            this.quantity = quantity;
+            this.numberOfOrders = numberOfOrders;
+        }
+
+        public long getPrice() {
+            return price;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        public int getNumberOfOrders() {
+            return numberOfOrders;
+        }
+
     }
 
     private final Long id;
@@ -124,7 +247,8 @@ public abstract class Order {
     public static final class Ask extends Order implements Comparable<Ask> {
 
         private static final ConcurrentMap<Long, Ask> askOrders = new ConcurrentHashMap<>();
-        private static final ConcurrentMap<Long, SortedSet<Ask>> sortedAskOrders = new ConcurrentHashMap<>();
+        private static final ConcurrentMap<Long, OrderBook<Ask>> askOrderBooks = new ConcurrentHashMap<>();
+        private static final AccountOrders<Ask> accountAskOrders = new AccountOrders<>();
 
         private static final Collection<Ask> allAskOrders = Collections.unmodifiableCollection(askOrders.values());
 
@@ -137,8 +261,17 @@ public abstract class Order {
         }
 
         public static SortedSet<Ask> getSortedOrders(Long assetId) {
-            SortedSet<Ask> sortedOrders = sortedAskOrders.get(assetId);
-            return sortedOrders == null ? (SortedSet<Ask>)emptySortedSet : Collections.unmodifiableSortedSet(sortedOrders);
+            OrderBook<Ask> orderBook = askOrderBooks.get(assetId);
+            return orderBook == null ? (SortedSet<Ask>)emptySortedSet : orderBook.getSortedOrders();
+        }
+
+        public static List<Ask> getAccountOrders(Long accountId, Long assetId) {
+            return accountAskOrders.get(accountId, assetId);
+        }
+
+        public static List<DepthLevel> getDepth(Long assetId, int numberOfLevels) {
+            OrderBook<Ask> orderBook = askOrderBooks.get(assetId);
+            return orderBook == null ? Collections.<DepthLevel>emptyList() : orderBook.getDepth(numberOfLevels);
         }
 
         static void addOrder(Long transactionId, Account senderAccount, Long assetId, int quantity, long price) {
@@ -146,19 +279,21 @@ public abstract class Order {
             if (askOrders.putIfAbsent(order.getId(), order) != null) {
                 throw new IllegalStateException("Ask order id " + Convert.toUnsignedLong(order.getId()) + " already exists");
             }
-            SortedSet<Ask> sortedAssetAskOrders = sortedAskOrders.get(assetId);
-            if (sortedAssetAskOrders == null) {
-                sortedAssetAskOrders = new ConcurrentSkipListSet<>();
-                sortedAskOrders.put(assetId,sortedAssetAskOrders);
+            OrderBook<Ask> orderBook = askOrderBooks.get(assetId);
+            if (orderBook == null) {
+                orderBook = OrderBook.ascending();
+                askOrderBooks.put(assetId, orderBook);
             }
-            sortedAssetAskOrders.add(order);
-            matchOrders(assetId);
+            orderBook.add(order);
+            accountAskOrders.add(order);
+            matchOrders(assetId, order);
         }
 
         static Ask removeOrder(Long orderId) {
             Ask askOrder = askOrders.remove(orderId);
             if (askOrder != null) {
-                sortedAskOrders.get(askOrder.getAssetId()).remove(askOrder);
+                askOrderBooks.get(askOrder.getAssetId()).remove(askOrder);
+                accountAskOrders.remove(askOrder);
             }
             return askOrder;
         }
@@ -183,7 +318,8 @@ public abstract class Order {
     public static final class Bid extends Order implements Comparable<Bid> {
 
         private static final ConcurrentMap<Long, Bid> bidOrders = new ConcurrentHashMap<>();
-        private static final ConcurrentMap<Long, SortedSet<Bid>> sortedBidOrders = new ConcurrentHashMap<>();
+        private static final ConcurrentMap<Long, OrderBook<Bid>> bidOrderBooks = new ConcurrentHashMap<>();
+        private static final AccountOrders<Bid> accountBidOrders = new AccountOrders<>();
 
         private static final Collection<Bid> allBidOrders = Collections.unmodifiableCollection(bidOrders.values());
 
@@ -196,8 +332,17 @@ public abstract class Order {
         }
 
         public static SortedSet<Bid> getSortedOrders(Long assetId) {
-            SortedSet<Bid> sortedOrders = sortedBidOrders.get(assetId);
-            return sortedOrders == null ? (SortedSet<Bid>)emptySortedSet : Collections.unmodifiableSortedSet(sortedOrders);
+            OrderBook<Bid> orderBook = bidOrderBooks.get(assetId);
+            return orderBook == null ? (SortedSet<Bid>)emptySortedSet : orderBook.getSortedOrders();
+        }
+
+        public static List<Bid> getAccountOrders(Long accountId, Long assetId) {
+            return accountBidOrders.get(accountId, assetId);
+        }
+
+        public static List<DepthLevel> getDepth(Long assetId, int numberOfLevels) {
+            OrderBook<Bid> orderBook = bidOrderBooks.get(assetId);
+            return orderBook == null ? Collections.<DepthLevel>emptyList() : orderBook.getDepth(numberOfLevels);
         }
 
         static void addOrder(Long transactionId, Account senderAccount, Long assetId, int quantity, long price) {
@@ -205,19 +350,21 @@ public abstract class Order {
             if (bidOrders.putIfAbsent(order.getId(), order) != null) {
                 throw new IllegalStateException("Bid order id " + Convert.toUnsignedLong(order.getId()) + " already exists");
             }
-            SortedSet<Bid> sortedAssetBidOrders = sortedBidOrders.get(assetId);
-            if (sortedAssetBidOrders == null) {
-                sortedAssetBidOrders = new ConcurrentSkipListSet<>();
-                sortedBidOrders.put(assetId,sortedAssetBidOrders);
+            OrderBook<Bid> orderBook = bidOrderBooks.get(assetId);
+            if (orderBook == null) {
+                orderBook = OrderBook.descending();
+                bidOrderBooks.put(assetId, orderBook);
             }
-            sortedAssetBidOrders.add(order);
-            matchOrders(assetId);
+            orderBook.add(order);
+            accountBidOrders.add(order);
+            matchOrders(assetId, order);
         }
 
         static Bid removeOrder(Long orderId) {
             Bid bidOrder = bidOrders.remove(orderId);
             if (bidOrder != null) {
-                sortedBidOrders.get(bidOrder.getAssetId()).remove(bidOrder);
+                bidOrderBooks.get(bidOrder.getAssetId()).remove(bidOrder);
+                accountBidOrders.remove(bidOrder);
             }
             return bidOrder;
         }
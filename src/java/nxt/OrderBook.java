@@ -0,0 +1,182 @@
+package nxt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// resting orders of one asset and one side, grouped into price levels with the best level cached
+// within a level orders are kept in matching priority, new orders are normally appended at the tail
+final class OrderBook<T extends Order & Comparable<T>> {
+
+    private static final Comparator<Long> DESCENDING = Collections.reverseOrder();
+
+    static <T extends Order & Comparable<T>> OrderBook<T> ascending() {
+        return new OrderBook<>(new TreeMap<Long, PriceLevel<T>>());
+    }
+
+    static <T extends Order & Comparable<T>> OrderBook<T> descending() {
+        return new OrderBook<>(new TreeMap<Long, PriceLevel<T>>(DESCENDING));
+    }
+
+    private final TreeMap<Long, PriceLevel<T>> levels;
+    private PriceLevel<T> bestLevel;
+    private int size;
+    private SortedSet<T> sortedOrders;
+    private List<Order.DepthLevel> depth;
+
+    private OrderBook(TreeMap<Long, PriceLevel<T>> levels) {
+        this.levels = levels;
+    }
+
+    synchronized void add(T order) {
+        PriceLevel<T> level = levels.get(order.getPrice());
+        if (level == null) {
+            level = new PriceLevel<>(order.getPrice());
+            levels.put(order.getPrice(), level);
+            bestLevel = levels.firstEntry().getValue();
+        }
+        level.add(order);
+        size += 1;
+        invalidate();
+    }
+
+    synchronized boolean remove(T order) {
+        PriceLevel<T> level = levels.get(order.getPrice());
+        if (level == null || ! level.remove(order)) {
+            return false;
+        }
+        if (level.size == 0) {
+            removeLevel(level);
+        }
+        size -= 1;
+        invalidate();
+        return true;
+    }
+
+    // order with the best price and the highest priority at that price, null if the book is empty
+    synchronized T getFirst() {
+        return bestLevel == null ? null : bestLevel.get(0);
+    }
+
+    synchronized void removeFirst() {
+        bestLevel.removeFirst();
+        if (bestLevel.size == 0) {
+            removeLevel(bestLevel);
+        }
+        size -= 1;
+        invalidate();
+    }
+
+    // must also be called when the quantity of an order in the book changes
+    synchronized void invalidate() {
+        sortedOrders = null;
+        depth = null;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    // read-only snapshot, rebuilt only after the book has changed
+    synchronized SortedSet<T> getSortedOrders() {
+        if (sortedOrders == null) {
+            SortedSet<T> orders = new TreeSet<>();
+            for (PriceLevel<T> level : levels.values()) {
+                for (int i = 0; i < level.size; i++) {
+                    orders.add(level.get(i));
+                }
+            }
+            sortedOrders = Collections.unmodifiableSortedSet(orders);
+        }
+        return sortedOrders;
+    }
+
+    // aggregated quantity and number of orders of the best price levels
+    synchronized List<Order.DepthLevel> getDepth(int numberOfLevels) {
+        if (depth == null) {
+            List<Order.DepthLevel> levelsDepth = new ArrayList<>(levels.size());
+            for (PriceLevel<T> level : levels.values()) {
+                long quantity = 0;
+                for (int i = 0; i < level.size; i++) {
+                    quantity += level.get(i).getQuantity();
+                }
+                levelsDepth.add(new Order.DepthLevel(level.price, quantity, level.size));
+            }
+            depth = Collections.unmodifiableList(levelsDepth);
+        }
+        return depth.size() <= numberOfLevels ? depth : depth.subList(0, numberOfLevels);
+    }
+
+    private void removeLevel(PriceLevel<T> level) {
+        levels.remove(level.price);
+        Map.Entry<Long, PriceLevel<T>> first = levels.firstEntry();
+        bestLevel = first == null ? null : first.getValue();
+    }
+
+    // orders at one price, in a circular buffer ordered by matching priority
+    static final class PriceLevel<T extends Order & Comparable<T>> {
+
+        private final long price;
+        private Object[] orders = new Object[4];
+        private int head;
+        private int size;
+
+        private PriceLevel(long price) {
+            this.price = price;
+        }
+
+        @SuppressWarnings("unchecked")
+        private T get(int i) {
+            return (T)orders[(head + i) & (orders.length - 1)];
+        }
+
+        private void set(int i, T order) {
+            orders[(head + i) & (orders.length - 1)] = order;
+        }
+
+        private void add(T order) {
+            if (size == orders.length) {
+                Object[] newOrders = new Object[orders.length * 2];
+                for (int i = 0; i < size; i++) {
+                    newOrders[i] = get(i);
+                }
+                orders = newOrders;
+                head = 0;
+            }
+            int i = size;
+            while (i > 0 && get(i - 1).compareTo(order) > 0) {
+                set(i, get(i - 1));
+                i--;
+            }
+            set(i, order);
+            size += 1;
+        }
+
+        private boolean remove(T order) {
+            for (int i = 0; i < size; i++) {
+                if (get(i) == order) {
+                    for (int j = i; j < size - 1; j++) {
+                        set(j, get(j + 1));
+                    }
+                    set(size - 1, null);
+                    size -= 1;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void removeFirst() {
+            set(0, null);
+            head = (head + 1) & (orders.length - 1);
+            size -= 1;
+        }
+
+    }
+
+}
@@ -20,6 +20,8 @@ public final class Poll {
     private final byte minNumberOfOptions, maxNumberOfOptions;
     private final boolean optionsAreBinary;
     private final ConcurrentMap<Long, Long> voters;
+    // sum of the votes cast for each option, counting only the latest vote of each voter
+    private final long[] results;
 
     private Poll(Long id, String name, String description, String[] options, byte minNumberOfOptions, byte maxNumberOfOptions, boolean optionsAreBinary) {
 
@@ -31,6 +33,7 @@ public final class Poll {
         this.maxNumberOfOptions = maxNumberOfOptions;
         this.optionsAreBinary = optionsAreBinary;
         this.voters = new ConcurrentHashMap<>();
+        this.results = new long[options.length];
 
     }
 
@@ -72,8 +75,23 @@ public final class Poll {
         return Collections.unmodifiableMap(voters);
     }
 
-    void addVoter(Long voterId, Long voteId) {
-        voters.put(voterId, voteId);
+    public synchronized long[] getResults() {
+        return results.clone();
+    }
+
+    synchronized void addVote(Vote vote) {
+        Long oldVoteId = voters.put(vote.getVoterId(), vote.getId());
+        if (oldVoteId != null) {
+            addToResults(Vote.getVote(oldVoteId).getVote(), -1);
+        }
+        addToResults(vote.getVote(), 1);
+    }
+
+    // votes are not checked against the number of options, extra entries are ignored
+    private void addToResults(byte[] vote, int sign) {
+        for (int i = 0; i < vote.length && i < results.length; i++) {
+            results[i] += sign * vote[i];
+        }
     }
 
 }
@@ -0,0 +1,94 @@
+package nxt;
+
+import nxt.util.Listener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class Statistics {
+
+    private static final AtomicInteger numberOfTransactions = new AtomicInteger();
+
+    private static final class TotalEffectiveBalance {
+        private final Long blockId;
+        private final long balance;
+        private TotalEffectiveBalance(Long blockId, long balance) {
+            this.blockId = blockId;
+            this.balance = balance;
+        }
+    }
+
+    private static volatile TotalEffectiveBalance totalEffectiveBalance;
+
+    static {
+
+        BlockchainProcessorImpl.getInstance().addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                numberOfTransactions.addAndGet(block.getTransactionIds().size());
+            }
+        }, BlockchainProcessor.Event.BLOCK_PUSHED);
+
+        BlockchainProcessorImpl.getInstance().addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                numberOfTransactions.addAndGet(block.getTransactionIds().size());
+            }
+        }, BlockchainProcessor.Event.BLOCK_SCANNED);
+
+        BlockchainProcessorImpl.getInstance().addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                numberOfTransactions.addAndGet(- block.getTransactionIds().size());
+            }
+        }, BlockchainProcessor.Event.BLOCK_POPPED);
+
+    }
+
+    static void init() {}
+
+    static void clear() {
+        numberOfTransactions.set(0);
+        totalEffectiveBalance = null;
+    }
+
+    public static int getNumberOfBlocks() {
+        return Nxt.getBlockchain().getLastBlock().getHeight() + 1;
+    }
+
+    public static int getNumberOfTransactions() {
+        return numberOfTransactions.get();
+    }
+
+    public static int getNumberOfTrades() {
+        return Trade.getNumberOfTrades();
+    }
+
+    public static int getNumberOfOrders() {
+        return Order.Ask.getAllAskOrders().size() + Order.Bid.getAllBidOrders().size();
+    }
+
+    public static int getNumberOfAliases() {
+        return Alias.getAllAliases().size();
+    }
+
+    // effective balances only change with new blocks, so they are summed at most once per block
+    public static long getTotalEffectiveBalance() {
+        Block lastBlock = Nxt.getBlockchain().getLastBlock();
+        TotalEffectiveBalance total = totalEffectiveBalance;
+        if (total == null || ! lastBlock.getId().equals(total.blockId)) {
+            long balance = 0;
+            for (Account account : Account.getAllAccounts()) {
+                long effectiveBalance = account.getEffectiveBalance();
+                if (effectiveBalance > 0) {
+                    balance += effectiveBalance;
+                }
+            }
+            total = new TotalEffectiveBalance(lastBlock.getId(), balance);
+            totalEffectiveBalance = total;
+        }
+        return total.balance;
+    }
+
+    private Statistics() {} // never
+
+}
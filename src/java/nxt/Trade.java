@@ -3,12 +3,13 @@ package nxt;
 import nxt.util.Listener;
 import nxt.util.Listeners;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 public final class Trade {
 
@@ -18,11 +19,56 @@ public final class Trade {
 
     private static final Listeners<Trade,Event> listeners = new Listeners<>();
 
-    private static final ConcurrentMap<Long, List<Trade>> trades = new ConcurrentHashMap<>();
-    private static final Collection<List<Trade>> allTrades = Collections.unmodifiableCollection(trades.values());
+    private static final ConcurrentMap<Long, TradeLog> trades = new ConcurrentHashMap<>();
+    // trades of all assets in the order they happened, so also ordered by timestamp
+    private static final TradeLog allTradesLog = new TradeLog(null);
+
+    static {
+
+        Nxt.getBlockchainProcessor().addListener(new Listener<Block>() {
+            @Override
+            public void notify(Block block) {
+                for (TradeLog tradeLog : trades.values()) {
+                    tradeLog.truncate(block.getId());
+                }
+                allTradesLog.truncate(block.getId());
+            }
+        }, BlockchainProcessor.Event.BEFORE_BLOCK_UNDO);
+
+    }
+
+    static void init() {}
 
     public static Collection<List<Trade>> getAllTrades() {
-        return allTrades;
+        List<List<Trade>> allTrades = new ArrayList<>();
+        for (TradeLog tradeLog : trades.values()) {
+            allTrades.add(tradeLog.getTrades());
+        }
+        return Collections.unmodifiableCollection(allTrades);
+    }
+
+    public static int getNumberOfTrades() {
+        return allTradesLog.getTrades().size();
+    }
+
+    // snapshot of the trades of all assets in time order, later trades do not change it
+    public static List<Trade> getAllTradesByTime() {
+        return allTradesLog.getTrades();
+    }
+
+    // index of the first trade at or after the timestamp in a time ordered trade list, or its size if there is none
+    public static int getFirstIndex(List<Trade> trades, int timestamp) {
+        int low = 0;
+        int high = trades.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (trades.get(mid).getTimestamp() < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
     }
 
     public static boolean addListener(Listener<Trade> listener, Event eventType) {
@@ -34,19 +80,19 @@ public final class Trade {
     }
 
     static void addTrade(Long assetId, int timeStamp, Long blockId, Long askOrderId, Long bidOrderId, int quantity, long price) {
-        List<Trade> assetTrades = trades.get(assetId);
-        if (assetTrades == null) {
-            assetTrades = new CopyOnWriteArrayList<>();
-            // cfb: CopyOnWriteArrayList requires a lot of resources to grow but this happens only when a new block is pushed/applied, I can't decide if we should replace it with another class
-            trades.put(assetId, assetTrades);
+        TradeLog tradeLog = trades.get(assetId);
+        if (tradeLog == null) {
+            tradeLog = new TradeLog(assetId);
+            trades.put(assetId, tradeLog);
         }
-        Trade trade = new Trade(blockId, timeStamp, assetId, askOrderId, bidOrderId, quantity, price);
-        assetTrades.add(trade);
-        listeners.notify(trade, Event.TRADE);
+        tradeLog.add(assetId, timeStamp, blockId, askOrderId, bidOrderId, quantity, price);
+        allTradesLog.add(assetId, timeStamp, blockId, askOrderId, bidOrderId, quantity, price);
+        listeners.notify(new Trade(blockId, timeStamp, assetId, askOrderId, bidOrderId, quantity, price), Event.TRADE);
     }
 
     static void clear() {
         trades.clear();
+        allTradesLog.clear();
     }
 
     private final int timestamp;
@@ -77,17 +123,146 @@ public final class Trade {
     public int getQuantity() { return quantity; }
 
     public long getPrice() { return price; }
-    
+
     public Long getAssetId() { return assetId; }
-    
+
     public int getTimestamp() { return timestamp; }
 
     public static List<Trade> getTrades(Long assetId) {
-        List<Trade> assetTrades = trades.get(assetId);
-        if (assetTrades != null) {
-            return Collections.unmodifiableList(assetTrades);
+        TradeLog tradeLog = trades.get(assetId);
+        if (tradeLog != null) {
+            return tradeLog.getTrades();
         }
         return Collections.emptyList();
     }
 
+    // append-only trade history of one asset, or of all assets if assetId is null, stored column-wise in fixed size chunks
+    // appends and truncation are done by the block thread, readers work on immutable snapshots
+    private static final class TradeLog {
+
+        private static final int CHUNK_SIZE = 256;
+
+        private static final class Chunk {
+            private final long[] assetIds;
+            private final int[] timestamps = new int[CHUNK_SIZE];
+            private final long[] blockIds = new long[CHUNK_SIZE];
+            private final long[] askOrderIds = new long[CHUNK_SIZE];
+            private final long[] bidOrderIds = new long[CHUNK_SIZE];
+            private final int[] quantities = new int[CHUNK_SIZE];
+            private final long[] prices = new long[CHUNK_SIZE];
+
+            private Chunk(boolean hasAssetIds) {
+                this.assetIds = hasAssetIds ? new long[CHUNK_SIZE] : null;
+            }
+
+            private Chunk copy() {
+                Chunk copy = new Chunk(assetIds != null);
+                if (assetIds != null) {
+                    System.arraycopy(assetIds, 0, copy.assetIds, 0, CHUNK_SIZE);
+                }
+                System.arraycopy(timestamps, 0, copy.timestamps, 0, CHUNK_SIZE);
+                System.arraycopy(blockIds, 0, copy.blockIds, 0, CHUNK_SIZE);
+                System.arraycopy(askOrderIds, 0, copy.askOrderIds, 0, CHUNK_SIZE);
+                System.arraycopy(bidOrderIds, 0, copy.bidOrderIds, 0, CHUNK_SIZE);
+                System.arraycopy(quantities, 0, copy.quantities, 0, CHUNK_SIZE);
+                System.arraycopy(prices, 0, copy.prices, 0, CHUNK_SIZE);
+                return copy;
+            }
+        }
+
+        // entries below size are never modified again, truncation copies the last chunk instead
+        private static final class Snapshot extends AbstractList<Trade> {
+
+            private final Long assetId;
+            private final Chunk[] chunks;
+            private final int size;
+
+            private Snapshot(Long assetId, Chunk[] chunks, int size) {
+                this.assetId = assetId;
+                this.chunks = chunks;
+                this.size = size;
+            }
+
+            @Override
+            public Trade get(int index) {
+                if (index < 0 || index >= size) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+                }
+                Chunk chunk = chunks[index / CHUNK_SIZE];
+                int i = index % CHUNK_SIZE;
+                return new Trade(chunk.blockIds[i], chunk.timestamps[i], assetId != null ? assetId : chunk.assetIds[i],
+                        chunk.askOrderIds[i], chunk.bidOrderIds[i], chunk.quantities[i], chunk.prices[i]);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+        }
+
+        private final Long assetId;
+        private volatile Snapshot snapshot;
+
+        private TradeLog(Long assetId) {
+            this.assetId = assetId;
+            this.snapshot = new Snapshot(assetId, new Chunk[4], 0);
+        }
+
+        private List<Trade> getTrades() {
+            return snapshot;
+        }
+
+        private synchronized void add(Long assetId, int timestamp, Long blockId, Long askOrderId, Long bidOrderId, int quantity, long price) {
+            Chunk[] chunks = snapshot.chunks;
+            int size = snapshot.size;
+            int chunkIndex = size / CHUNK_SIZE;
+            if (chunkIndex == chunks.length) {
+                Chunk[] newChunks = new Chunk[chunks.length * 2];
+                System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+                chunks = newChunks;
+            }
+            if (chunks[chunkIndex] == null) {
+                chunks[chunkIndex] = new Chunk(this.assetId == null);
+            }
+            Chunk chunk = chunks[chunkIndex];
+            int i = size % CHUNK_SIZE;
+            if (chunk.assetIds != null) {
+                chunk.assetIds[i] = assetId;
+            }
+            chunk.timestamps[i] = timestamp;
+            chunk.blockIds[i] = blockId;
+            chunk.askOrderIds[i] = askOrderId;
+            chunk.bidOrderIds[i] = bidOrderId;
+            chunk.quantities[i] = quantity;
+            chunk.prices[i] = price;
+            snapshot = new Snapshot(this.assetId, chunks, size + 1);
+        }
+
+        private synchronized void clear() {
+            snapshot = new Snapshot(assetId, new Chunk[4], 0);
+        }
+
+        // removes the trades of the given block from the end of the log
+        private synchronized void truncate(Long blockId) {
+            Chunk[] chunks = snapshot.chunks;
+            int size = snapshot.size;
+            int newSize = size;
+            while (newSize > 0 && chunks[(newSize - 1) / CHUNK_SIZE].blockIds[(newSize - 1) % CHUNK_SIZE] == blockId) {
+                newSize -= 1;
+            }
+            if (newSize == size) {
+                return;
+            }
+            Chunk[] newChunks = new Chunk[chunks.length];
+            System.arraycopy(chunks, 0, newChunks, 0, (newSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            if (newSize % CHUNK_SIZE != 0) {
+                int last = newSize / CHUNK_SIZE;
+                newChunks[last] = chunks[last].copy();
+            }
+            snapshot = new Snapshot(assetId, newChunks, newSize);
+        }
+
+    }
+
 }
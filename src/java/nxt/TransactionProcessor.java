@@ -1,5 +1,6 @@
 package nxt;
 
+import nxt.peer.Peer;
 import nxt.util.Observable;
 import org.json.simple.JSONObject;
 
@@ -19,10 +20,15 @@ public interface TransactionProcessor extends Observable<List<Transaction>,Trans
 
     Transaction getUnconfirmedTransaction(Long transactionId);
 
+    // adds the ids of unconfirmed transactions added after the since cursor, and returns the cursor for the next call
+    long getUnconfirmedTransactionIds(long since, List<Long> transactionIds);
+
     void broadcast(Transaction transaction) throws NxtException.ValidationException;
 
     void processPeerTransactions(JSONObject request);
 
+    void processPeerTransactionIds(JSONObject request, Peer peer);
+
     Transaction parseTransaction(byte[] bytes) throws NxtException.ValidationException;
 
     Transaction newTransaction(short deadline, byte[] senderPublicKey, Long recipientId,
@@ -18,9 +18,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -35,7 +38,33 @@ final class TransactionProcessorImpl implements TransactionProcessor {
     private final ConcurrentMap<Long, TransactionImpl> doubleSpendingTransactions = new ConcurrentHashMap<>();
     private final ConcurrentMap<Long, TransactionImpl> unconfirmedTransactions = new ConcurrentHashMap<>();
     private final Collection<TransactionImpl> allUnconfirmedTransactions = Collections.unmodifiableCollection(unconfirmedTransactions.values());
-    private final ConcurrentMap<Long, TransactionImpl> nonBroadcastedTransactions = new ConcurrentHashMap<>();
+    private static class BroadcastInfo {
+        private final TransactionImpl transaction;
+        private final JSONObject transactionData;
+        private int attempts;
+        private int nextBroadcastTime;
+        private BroadcastInfo(TransactionImpl transaction) {
+            this.transaction = transaction;
+            this.transactionData = transaction.getJSONObject();
+            this.nextBroadcastTime = transaction.getTimestamp() + INITIAL_REBROADCAST_DELAY;
+        }
+        private void scheduleNextBroadcast(int curTime) {
+            attempts += 1;
+            nextBroadcastTime = curTime + Math.min(INITIAL_REBROADCAST_DELAY << Math.min(attempts, 16), MAX_REBROADCAST_DELAY);
+        }
+    }
+    private static final int INITIAL_REBROADCAST_DELAY = 30;
+    private static final int MAX_REBROADCAST_DELAY = 3600;
+    private final ConcurrentMap<Long, BroadcastInfo> nonBroadcastedTransactions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Peer> announcedTransactionIds = new ConcurrentHashMap<>();
+    // unconfirmed transaction ids by the sequence number they were added with, peers use sequence numbers as cursors
+    // the sequence starts from the clock so that cursors handed out before a restart stay below new ones
+    private final NavigableMap<Long, Long> unconfirmedTransactionIdLog = new TreeMap<>();
+    private long unconfirmedTransactionSequence = System.currentTimeMillis() * 1000;
+    // the last cursor returned by each peer for its unconfirmed transaction ids
+    private final ConcurrentMap<Peer, Long> unconfirmedTransactionCursors = new ConcurrentHashMap<>();
+    private static final int MAX_ANNOUNCED_TRANSACTION_IDS = 10000;
+    private static final int MAX_REQUESTED_TRANSACTIONS = 255;
     private static class TransactionHashInfo {
         private final Long transactionId;
         private final int expiration;
@@ -58,22 +87,27 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     int curTime = Convert.getEpochTime();
                     List<Transaction> removedUnconfirmedTransactions = new ArrayList<>();
 
-                    synchronized (BlockchainImpl.getInstance()) {
-                        Iterator<TransactionImpl> iterator = unconfirmedTransactions.values().iterator();
-                        while (iterator.hasNext()) {
-                            TransactionImpl transaction = iterator.next();
-                            boolean isNotValid = false;
-                            try {
-                                transaction.validateAttachment();
-                            } catch (NxtException.ValidationException e) {
-                                isNotValid = true;
-                            }
-                            if (transaction.getExpiration() < curTime || isNotValid) {
-                                iterator.remove();
-                                transaction.undoUnconfirmed();
-                                removedUnconfirmedTransactions.add(transaction);
+                    Account.beginChangeSet();
+                    try {
+                        synchronized (BlockchainImpl.getInstance()) {
+                            Iterator<TransactionImpl> iterator = unconfirmedTransactions.values().iterator();
+                            while (iterator.hasNext()) {
+                                TransactionImpl transaction = iterator.next();
+                                boolean isNotValid = false;
+                                try {
+                                    transaction.validateAttachment();
+                                } catch (NxtException.ValidationException e) {
+                                    isNotValid = true;
+                                }
+                                if (transaction.getExpiration() < curTime || isNotValid) {
+                                    iterator.remove();
+                                    transaction.undoUnconfirmed();
+                                    removedUnconfirmedTransactions.add(transaction);
+                                }
                             }
                         }
+                    } finally {
+                        Account.endChangeSet();
                     }
 
                     if (removedUnconfirmedTransactions.size() > 0) {
@@ -103,19 +137,25 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     JSONArray transactionsData = new JSONArray();
 
                     int curTime = Convert.getEpochTime();
-                    for (TransactionImpl transaction : nonBroadcastedTransactions.values()) {
-                        boolean isNotValid = false;
+                    for (BroadcastInfo broadcastInfo : nonBroadcastedTransactions.values()) {
+                        TransactionImpl transaction = broadcastInfo.transaction;
+                        if (transaction.getExpiration() < curTime) {
+                            Logger.logDebugMessage("Transaction " + transaction.getStringId() + " expired after "
+                                    + broadcastInfo.attempts + " broadcast attempts");
+                            nonBroadcastedTransactions.remove(transaction.getId());
+                            continue;
+                        }
+                        if (broadcastInfo.nextBroadcastTime > curTime) {
+                            continue;
+                        }
                         try {
                             transaction.validateAttachment();
                         } catch (NxtException.ValidationException e) {
-                            isNotValid = true;
-                        }
-                        if (TransactionDb.hasTransaction(transaction.getId()) || transaction.getExpiration() < curTime
-                                || isNotValid) {
                             nonBroadcastedTransactions.remove(transaction.getId());
-                        } else if (transaction.getTimestamp() < curTime - 30) {
-                            transactionsData.add(transaction.getJSONObject());
+                            continue;
                         }
+                        transactionsData.add(broadcastInfo.transactionData);
+                        broadcastInfo.scheduleNextBroadcast(curTime);
                     }
 
                     if (transactionsData.size() > 0) {
@@ -155,7 +195,38 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                     if (peer == null) {
                         return;
                     }
-                    JSONObject response = peer.send(getUnconfirmedTransactionsRequest);
+                    JSONObject request = new JSONObject();
+                    request.put("requestType", "getUnconfirmedTransactionIds");
+                    Long cursor = unconfirmedTransactionCursors.get(peer);
+                    if (cursor != null) {
+                        // only the ids the peer added since the last request
+                        request.put("since", cursor);
+                    }
+                    JSONObject response = peer.send(JSON.prepareRequest(request));
+                    if (response == null) {
+                        return;
+                    }
+                    JSONArray transactionIds = (JSONArray)response.get("unconfirmedTransactionIds");
+                    if (transactionIds != null) {
+                        if (response.get("cursor") instanceof Number) {
+                            unconfirmedTransactionCursors.put(peer, ((Number)response.get("cursor")).longValue());
+                        }
+                        List<Long> missingTransactionIds = new ArrayList<>();
+                        for (Object transactionId : transactionIds) {
+                            Long id = Convert.parseUnsignedLong((String) transactionId);
+                            if (id == null) {
+                                continue;
+                            }
+                            acknowledgeBroadcast(id, peer);
+                            if (! isKnownTransaction(id)) {
+                                missingTransactionIds.add(id);
+                            }
+                        }
+                        requestTransactions(peer, missingTransactionIds, false);
+                        return;
+                    }
+                    // peer does not support transaction ids yet, fall back to downloading its whole pool
+                    response = peer.send(getUnconfirmedTransactionsRequest);
                     if (response == null) {
                         return;
                     }
@@ -176,10 +247,69 @@ final class TransactionProcessorImpl implements TransactionProcessor {
 
     };
 
+    private final Runnable fetchAnnouncedTransactionsThread = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    Map<Peer, List<Long>> peerTransactionIds = new HashMap<>();
+                    Iterator<Map.Entry<Long, Peer>> iterator = announcedTransactionIds.entrySet().iterator();
+                    while (iterator.hasNext()) {
+                        Map.Entry<Long, Peer> entry = iterator.next();
+                        iterator.remove();
+                        if (isKnownTransaction(entry.getKey())) {
+                            continue;
+                        }
+                        List<Long> transactionIds = peerTransactionIds.get(entry.getValue());
+                        if (transactionIds == null) {
+                            transactionIds = new ArrayList<>();
+                            peerTransactionIds.put(entry.getValue(), transactionIds);
+                        }
+                        transactionIds.add(entry.getKey());
+                    }
+                    for (Map.Entry<Peer, List<Long>> entry : peerTransactionIds.entrySet()) {
+                        requestTransactions(entry.getKey(), entry.getValue(), true);
+                    }
+                } catch (Exception e) {
+                    Logger.logDebugMessage("Error fetching announced transactions from peers", e);
+                }
+            } catch (Throwable t) {
+                Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
+                t.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+    };
+
     private TransactionProcessorImpl() {
+        transactionListeners.addListener(new Listener<List<Transaction>>() {
+            @Override
+            public void notify(List<Transaction> transactions) {
+                for (Transaction transaction : transactions) {
+                    nonBroadcastedTransactions.remove(transaction.getId());
+                }
+            }
+        }, Event.ADDED_CONFIRMED_TRANSACTIONS);
+        transactionListeners.addListener(new Listener<List<Transaction>>() {
+            @Override
+            public void notify(List<Transaction> transactions) {
+                logUnconfirmedTransactionIds(transactions);
+            }
+        }, Event.ADDED_UNCONFIRMED_TRANSACTIONS);
+        Listener<Peer> forgetCursor = new Listener<Peer>() {
+            @Override
+            public void notify(Peer peer) {
+                unconfirmedTransactionCursors.remove(peer);
+            }
+        };
+        Peers.addListener(forgetCursor, Peers.Event.REMOVE);
+        Peers.addListener(forgetCursor, Peers.Event.BLACKLIST);
         ThreadPool.scheduleThread(processTransactionsThread, 5);
+        ThreadPool.scheduleThread(fetchAnnouncedTransactionsThread, 1);
         ThreadPool.scheduleThread(removeUnconfirmedTransactionsThread, 1);
-        ThreadPool.scheduleThread(rebroadcastTransactionsThread, 60);
+        ThreadPool.scheduleThread(rebroadcastTransactionsThread, 5);
     }
 
     @Override
@@ -202,13 +332,33 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         return unconfirmedTransactions.get(transactionId);
     }
 
+    @Override
+    public long getUnconfirmedTransactionIds(long since, List<Long> transactionIds) {
+        synchronized (unconfirmedTransactionIdLog) {
+            if (since > unconfirmedTransactionSequence) {
+                // a cursor from before a restart with a clock that went back
+                since = 0;
+            }
+            for (Long transactionId : unconfirmedTransactionIdLog.tailMap(since, false).values()) {
+                if (unconfirmedTransactions.containsKey(transactionId)) {
+                    transactionIds.add(transactionId);
+                }
+            }
+            return unconfirmedTransactionSequence;
+        }
+    }
+
     @Override
     public void broadcast(Transaction transaction) throws NxtException.ValidationException {
         if (! ((TransactionImpl)transaction).verify()) {
             throw new NxtException.ValidationException("Transaction signature verification failed");
         }
-        processTransactions(Arrays.asList((TransactionImpl)transaction), true);
-        nonBroadcastedTransactions.put(transaction.getId(), (TransactionImpl) transaction);
+        List<TransactionImpl> validTransactions = processTransactions(Arrays.asList((TransactionImpl)transaction), true);
+        if (validTransactions.size() > 0) {
+            // nobody else has our own new transactions yet, so send them in full instead of announcing
+            sendToPeers(validTransactions);
+        }
+        nonBroadcastedTransactions.put(transaction.getId(), new BroadcastInfo((TransactionImpl) transaction));
         Logger.logDebugMessage("Accepted new transaction " + transaction.getStringId());
     }
 
@@ -218,6 +368,28 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         processPeerTransactions(transactionsData, true);
     }
 
+    @Override
+    public void processPeerTransactionIds(JSONObject request, Peer peer) {
+        JSONArray transactionIds = (JSONArray)request.get("transactionIds");
+        if (transactionIds == null) {
+            return;
+        }
+        for (Object transactionId : transactionIds) {
+            if (announcedTransactionIds.size() >= MAX_ANNOUNCED_TRANSACTION_IDS) {
+                Logger.logDebugMessage("Too many pending announced transactions, ignoring announcement from " + peer.getPeerAddress());
+                return;
+            }
+            Long id = Convert.parseUnsignedLong((String) transactionId);
+            if (id == null) {
+                continue;
+            }
+            acknowledgeBroadcast(id, peer);
+            if (! isKnownTransaction(id)) {
+                announcedTransactionIds.putIfAbsent(id, peer);
+            }
+        }
+    }
+
     @Override
     public Transaction parseTransaction(byte[] bytes) throws NxtException.ValidationException {
 
@@ -302,6 +474,11 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         unconfirmedTransactions.clear();
         doubleSpendingTransactions.clear();
         nonBroadcastedTransactions.clear();
+        announcedTransactionIds.clear();
+        unconfirmedTransactionCursors.clear();
+        synchronized (unconfirmedTransactionIdLog) {
+            unconfirmedTransactionIdLog.clear();
+        }
         transactionHashes.clear();
     }
 
@@ -396,6 +573,86 @@ final class TransactionProcessorImpl implements TransactionProcessor {
         }
     }
 
+    private void acknowledgeBroadcast(Long transactionId, Peer peer) {
+        BroadcastInfo broadcastInfo = nonBroadcastedTransactions.remove(transactionId);
+        if (broadcastInfo != null) {
+            Logger.logDebugMessage("Transaction " + broadcastInfo.transaction.getStringId() + " acknowledged by peer "
+                    + peer.getPeerAddress() + " after " + broadcastInfo.attempts + " rebroadcast attempts");
+        }
+    }
+
+    private boolean isKnownTransaction(Long transactionId) {
+        return unconfirmedTransactions.containsKey(transactionId) || doubleSpendingTransactions.containsKey(transactionId);
+    }
+
+    private void requestTransactions(Peer peer, List<Long> transactionIds, boolean sendToPeers) {
+        for (int i = 0; i < transactionIds.size(); i += MAX_REQUESTED_TRANSACTIONS) {
+            JSONArray requestedIds = new JSONArray();
+            for (Long transactionId : transactionIds.subList(i, Math.min(i + MAX_REQUESTED_TRANSACTIONS, transactionIds.size()))) {
+                requestedIds.add(Convert.toUnsignedLong(transactionId));
+            }
+            JSONObject request = new JSONObject();
+            request.put("requestType", "getTransactions");
+            request.put("transactionIds", requestedIds);
+            JSONObject response = peer.send(JSON.prepareRequest(request));
+            if (response == null) {
+                return;
+            }
+            JSONArray transactionsData = (JSONArray)response.get("transactions");
+            if (transactionsData == null) {
+                return;
+            }
+            if (transactionsData.size() > 0) {
+                processPeerTransactions(transactionsData, sendToPeers);
+            }
+        }
+    }
+
+    private void logUnconfirmedTransactionIds(List<Transaction> transactions) {
+        synchronized (unconfirmedTransactionIdLog) {
+            for (Transaction transaction : transactions) {
+                unconfirmedTransactionIdLog.put(++unconfirmedTransactionSequence, transaction.getId());
+            }
+            // drop ids that are no longer unconfirmed once they make up half of the log
+            if (unconfirmedTransactionIdLog.size() > 2 * unconfirmedTransactions.size() + 100) {
+                Iterator<Long> iterator = unconfirmedTransactionIdLog.values().iterator();
+                while (iterator.hasNext()) {
+                    if (! unconfirmedTransactions.containsKey(iterator.next())) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    private void sendToPeers(List<TransactionImpl> transactions) {
+        JSONArray transactionsData = new JSONArray();
+        for (Transaction transaction : transactions) {
+            transactionsData.add(transaction.getJSONObject());
+        }
+        JSONObject peerRequest = new JSONObject();
+        peerRequest.put("requestType", "processTransactions");
+        peerRequest.put("transactions", transactionsData);
+        Peers.sendToSomePeers(peerRequest);
+    }
+
+    // peers that do not know processTransactionIds yet get the full transactions
+    private void announceToPeers(List<TransactionImpl> transactions) {
+        JSONArray transactionIds = new JSONArray();
+        JSONArray transactionsData = new JSONArray();
+        for (Transaction transaction : transactions) {
+            transactionIds.add(transaction.getStringId());
+            transactionsData.add(transaction.getJSONObject());
+        }
+        JSONObject peerRequest = new JSONObject();
+        peerRequest.put("requestType", "processTransactionIds");
+        peerRequest.put("transactionIds", transactionIds);
+        JSONObject fallbackRequest = new JSONObject();
+        fallbackRequest.put("requestType", "processTransactions");
+        fallbackRequest.put("transactions", transactionsData);
+        Peers.sendToSomePeers(peerRequest, fallbackRequest);
+    }
+
     private void processPeerTransactions(JSONArray transactionsData, final boolean sendToPeers) {
         List<TransactionImpl> transactions = new ArrayList<>();
         for (Object transactionData : transactionsData) {
@@ -407,75 +664,77 @@ final class TransactionProcessorImpl implements TransactionProcessor {
                 }
             }
         }
-        processTransactions(transactions, sendToPeers);
+        List<TransactionImpl> validTransactions = processTransactions(transactions, sendToPeers);
         for (TransactionImpl transaction : transactions) {
             nonBroadcastedTransactions.remove(transaction.getId());
         }
+        if (validTransactions.size() > 0) {
+            announceToPeers(validTransactions);
+        }
     }
 
-    private void processTransactions(List<TransactionImpl> transactions, final boolean sendToPeers) {
-        JSONArray validTransactionsData = new JSONArray();
+    // returns the newly accepted transactions that should be forwarded to peers, if sendToPeers is set
+    private List<TransactionImpl> processTransactions(List<TransactionImpl> transactions, final boolean sendToPeers) {
+        List<TransactionImpl> validTransactions = new ArrayList<>();
         List<Transaction> addedUnconfirmedTransactions = new ArrayList<>();
         List<Transaction> addedDoubleSpendingTransactions = new ArrayList<>();
 
-        for (TransactionImpl transaction : transactions) {
+        Account.beginChangeSet();
+        try {
+            for (TransactionImpl transaction : transactions) {
 
-            try {
+                try {
 
-                int curTime = Convert.getEpochTime();
-                if (transaction.getTimestamp() > curTime + 15 || transaction.getExpiration() < curTime
-                        || transaction.getDeadline() > 1440) {
-                    continue;
-                }
+                    int curTime = Convert.getEpochTime();
+                    if (transaction.getTimestamp() > curTime + 15 || transaction.getExpiration() < curTime
+                            || transaction.getDeadline() > 1440) {
+                        continue;
+                    }
 
-                boolean doubleSpendingTransaction;
+                    boolean doubleSpendingTransaction;
 
-                synchronized (BlockchainImpl.getInstance()) {
+                    synchronized (BlockchainImpl.getInstance()) {
 
-                    Long id = transaction.getId();
-                    if (TransactionDb.hasTransaction(id) || unconfirmedTransactions.containsKey(id)
-                            || doubleSpendingTransactions.containsKey(id) || !transaction.verify()) {
-                        continue;
-                    }
+                        Long id = transaction.getId();
+                        if (TransactionDb.hasTransaction(id) || unconfirmedTransactions.containsKey(id)
+                                || doubleSpendingTransactions.containsKey(id) || !transaction.verify()) {
+                            continue;
+                        }
 
-                    if (transactionHashes.containsKey(transaction.getHash())) {
-                        continue;
-                    }
+                        if (transactionHashes.containsKey(transaction.getHash())) {
+                            continue;
+                        }
 
-                    doubleSpendingTransaction = !transaction.applyUnconfirmed();
+                        doubleSpendingTransaction = !transaction.applyUnconfirmed();
+
+                        if (doubleSpendingTransaction) {
+                            doubleSpendingTransactions.put(id, transaction);
+                        } else {
+                            if (sendToPeers) {
+                                if (nonBroadcastedTransactions.containsKey(id)) {
+                                    Logger.logDebugMessage("Received back transaction " + transaction.getStringId()
+                                            + " that we generated, will not forward to peers");
+                                } else {
+                                    validTransactions.add(transaction);
+                                }
+                            }
+                            unconfirmedTransactions.put(id, transaction);
+                        }
+                    }
 
                     if (doubleSpendingTransaction) {
-                        doubleSpendingTransactions.put(id, transaction);
+                        addedDoubleSpendingTransactions.add(transaction);
                     } else {
-                        if (sendToPeers) {
-                            if (nonBroadcastedTransactions.containsKey(id)) {
-                                Logger.logDebugMessage("Received back transaction " + transaction.getStringId()
-                                        + " that we generated, will not forward to peers");
-                            } else {
-                                validTransactionsData.add(transaction.getJSONObject());
-                            }
-                        }
-                        unconfirmedTransactions.put(id, transaction);
+                        addedUnconfirmedTransactions.add(transaction);
                     }
-                }
 
-                if (doubleSpendingTransaction) {
-                    addedDoubleSpendingTransactions.add(transaction);
-                } else {
-                    addedUnconfirmedTransactions.add(transaction);
+                } catch (RuntimeException e) {
+                    Logger.logMessage("Error processing transaction", e);
                 }
 
-            } catch (RuntimeException e) {
-                Logger.logMessage("Error processing transaction", e);
             }
-
-        }
-
-        if (validTransactionsData.size() > 0) {
-            JSONObject peerRequest = new JSONObject();
-            peerRequest.put("requestType", "processTransactions");
-            peerRequest.put("transactions", validTransactionsData);
-            Peers.sendToSomePeers(peerRequest);
+        } finally {
+            Account.endChangeSet();
         }
 
         if (addedUnconfirmedTransactions.size() > 0) {
@@ -485,6 +744,7 @@ final class TransactionProcessorImpl implements TransactionProcessor {
             transactionListeners.notify(addedDoubleSpendingTransactions, Event.ADDED_DOUBLESPENDING_TRANSACTIONS);
         }
 
+        return validTransactions;
     }
 
 }
@@ -513,7 +513,7 @@ public abstract class TransactionType {
                 Poll poll = Poll.getPoll(attachment.getPollId());
                 if (poll != null) {
                     Vote vote = Vote.addVote(transaction.getId(), attachment.getPollId(), transaction.getSenderId(), attachment.getPollVote());
-                    poll.addVoter(transaction.getSenderId(), vote.getId());
+                    poll.addVote(vote);
                 }
             }
 
@@ -663,8 +663,8 @@ public abstract class TransactionType {
             @Override
             boolean applyAttachmentUnconfirmed(Transaction transaction, Account senderAccount) {
                 Attachment.ColoredCoinsAssetTransfer attachment = (Attachment.ColoredCoinsAssetTransfer)transaction.getAttachment();
-                Integer unconfirmedAssetBalance = senderAccount.getUnconfirmedAssetBalance(attachment.getAssetId());
-                if (unconfirmedAssetBalance != null && unconfirmedAssetBalance >= attachment.getQuantity()) {
+                long unconfirmedAssetBalance = senderAccount.getUnconfirmedAssetBalance(attachment.getAssetId());
+                if (unconfirmedAssetBalance >= attachment.getQuantity()) {
                     senderAccount.addToUnconfirmedAssetBalance(attachment.getAssetId(), -attachment.getQuantity());
                     return true;
                 }
@@ -773,8 +773,8 @@ public abstract class TransactionType {
             @Override
             boolean applyAttachmentUnconfirmed(Transaction transaction, Account senderAccount) {
                 Attachment.ColoredCoinsAskOrderPlacement attachment = (Attachment.ColoredCoinsAskOrderPlacement)transaction.getAttachment();
-                Integer unconfirmedAssetBalance = senderAccount.getUnconfirmedAssetBalance(attachment.getAssetId());
-                if (unconfirmedAssetBalance != null && unconfirmedAssetBalance >= attachment.getQuantity()) {
+                long unconfirmedAssetBalance = senderAccount.getUnconfirmedAssetBalance(attachment.getAssetId());
+                if (unconfirmedAssetBalance >= attachment.getQuantity()) {
                     senderAccount.addToUnconfirmedAssetBalance(attachment.getAssetId(), -attachment.getQuantity());
                     return true;
                 }
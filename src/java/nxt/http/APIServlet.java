@@ -65,25 +65,31 @@ public final class APIServlet extends HttpServlet {
         map.put("getAccountBlockIds", GetAccountBlockIds.instance);
         map.put("getAccountId", GetAccountId.instance);
         map.put("getAccountPublicKey", GetAccountPublicKey.instance);
+        map.put("getAccountRank", GetAccountRank.instance);
         map.put("getAccountTransactionIds", GetAccountTransactionIds.instance);
         map.put("getAlias", GetAlias.instance);
         map.put("getAliasId", GetAliasId.instance);
         map.put("getAliasIds", GetAliasIds.instance);
         map.put("getAliasURI", GetAliasURI.instance);
         map.put("getAsset", GetAsset.instance);
+        map.put("getAssetAccounts", GetAssetAccounts.instance);
         map.put("getAssetIds", GetAssetIds.instance);
         map.put("getAssetsByName", GetAssetsByName.instance);
         map.put("getBalance", GetBalance.instance);
         map.put("getBlock", GetBlock.instance);
+        map.put("getCandles", GetCandles.instance);
         map.put("getConstants", GetConstants.instance);
         map.put("getGuaranteedBalance", GetGuaranteedBalance.instance);
         map.put("getMyInfo", GetMyInfo.instance);
+        map.put("getOrderBookDepth", GetOrderBookDepth.instance);
         map.put("getPeer", GetPeer.instance);
         map.put("getPeers", GetPeers.instance);
         map.put("getPoll", GetPoll.instance);
         map.put("getPollIds", GetPollIds.instance);
+        map.put("getPollResults", GetPollResults.instance);
         map.put("getState", GetState.instance);
         map.put("getTime", GetTime.instance);
+        map.put("getTopAccounts", GetTopAccounts.instance);
         map.put("getTrades", GetTrades.instance);
         map.put("getAllTrades", GetAllTrades.instance);
         map.put("getTransaction", GetTransaction.instance);
@@ -100,6 +106,8 @@ public final class APIServlet extends HttpServlet {
         map.put("markHost", MarkHost.instance);
         map.put("placeAskOrder", PlaceAskOrder.instance);
         map.put("placeBidOrder", PlaceBidOrder.instance);
+        map.put("searchAliases", SearchAliases.instance);
+        map.put("searchAssets", SearchAssets.instance);
         map.put("sendMessage", SendMessage.instance);
         map.put("sendMoney", SendMoney.instance);
         map.put("startForging", StartForging.instance);
@@ -39,43 +39,43 @@ public final class GetAccount extends APIServlet.APIRequestHandler {
             return INCORRECT_ACCOUNT;
         }
 
+        Account.State state = accountData.getState();
         JSONObject response = new JSONObject();
-        synchronized (accountData) {
-            if (accountData.getPublicKey() != null) {
-                response.put("publicKey", Convert.toHexString(accountData.getPublicKey()));
-            }
-
-            response.put("balance", accountData.getBalance());
-            response.put("effectiveBalance", accountData.getEffectiveBalance() * 100L);
-            response.put("unconfirmedBalance", accountData.getUnconfirmedBalance());
+        byte[] publicKey = state.getPublicKey();
+        if (publicKey != null) {
+            response.put("publicKey", Convert.toHexString(publicKey));
+        }
 
-            JSONArray assetBalances = new JSONArray();
-            for (Map.Entry<Long, Integer> assetBalanceEntry : accountData.getAssetBalances().entrySet()) {
+        response.put("balance", state.getBalance());
+        response.put("effectiveBalance", state.getEffectiveBalance() * 100L);
+        response.put("unconfirmedBalance", state.getUnconfirmedBalance());
 
-                JSONObject assetBalance = new JSONObject();
-                assetBalance.put("asset", Convert.toUnsignedLong(assetBalanceEntry.getKey()));
-                assetBalance.put("balance", assetBalanceEntry.getValue());
-                assetBalances.add(assetBalance);
+        JSONArray assetBalances = new JSONArray();
+        for (Map.Entry<Long, Long> assetBalanceEntry : accountData.getAssetBalances().entrySet()) {
 
-            }
-            if (assetBalances.size() > 0) {
-                response.put("assetBalances", assetBalances);
-            }
+            JSONObject assetBalance = new JSONObject();
+            assetBalance.put("asset", Convert.toUnsignedLong(assetBalanceEntry.getKey()));
+            assetBalance.put("balance", assetBalanceEntry.getValue());
+            assetBalances.add(assetBalance);
 
-            JSONArray unconfirmedAssetBalances = new JSONArray();
-            for (Map.Entry<Long, Integer> unconfirmedAssetBalanceEntry : accountData.getUnconfirmedAssetBalances().entrySet()) {
+        }
+        if (assetBalances.size() > 0) {
+            response.put("assetBalances", assetBalances);
+        }
 
-                JSONObject unconfirmedAssetBalance = new JSONObject();
-                unconfirmedAssetBalance.put("asset", Convert.toUnsignedLong(unconfirmedAssetBalanceEntry.getKey()));
-                unconfirmedAssetBalance.put("unconfirmedBalance", unconfirmedAssetBalanceEntry.getValue());
-                unconfirmedAssetBalances.add(unconfirmedAssetBalance);
+        JSONArray unconfirmedAssetBalances = new JSONArray();
+        for (Map.Entry<Long, Long> unconfirmedAssetBalanceEntry : accountData.getUnconfirmedAssetBalances().entrySet()) {
 
-            }
-            if (unconfirmedAssetBalances.size() > 0) {
-                response.put("unconfirmedAssetBalances", unconfirmedAssetBalances);
-            }
+            JSONObject unconfirmedAssetBalance = new JSONObject();
+            unconfirmedAssetBalance.put("asset", Convert.toUnsignedLong(unconfirmedAssetBalanceEntry.getKey()));
+            unconfirmedAssetBalance.put("unconfirmedBalance", unconfirmedAssetBalanceEntry.getValue());
+            unconfirmedAssetBalances.add(unconfirmedAssetBalance);
 
         }
+        if (unconfirmedAssetBalances.size() > 0) {
+            response.put("unconfirmedAssetBalances", unconfirmedAssetBalances);
+        }
+
         return response;
     }
 
@@ -47,10 +47,8 @@ public final class GetAccountCurrentAskOrderIds extends APIServlet.APIRequestHan
         }
 
         JSONArray orderIds = new JSONArray();
-        for (Order.Ask askOrder : Order.Ask.getAllAskOrders()) {
-            if ((assetId == null || askOrder.getAssetId().equals(assetId)) && askOrder.getAccount().equals(account)) {
-                orderIds.add(Convert.toUnsignedLong(askOrder.getId()));
-            }
+        for (Order.Ask askOrder : Order.Ask.getAccountOrders(account.getId(), assetId)) {
+            orderIds.add(Convert.toUnsignedLong(askOrder.getId()));
         }
 
         JSONObject response = new JSONObject();
@@ -47,10 +47,8 @@ public final class GetAccountCurrentBidOrderIds extends APIServlet.APIRequestHan
         }
 
         JSONArray orderIds = new JSONArray();
-        for (Order.Bid bidOrder : Order.Bid.getAllBidOrders()) {
-            if ((assetId == null || bidOrder.getAssetId().equals(assetId)) && bidOrder.getAccount().equals(account)) {
-                orderIds.add(Convert.toUnsignedLong(bidOrder.getId()));
-            }
+        for (Order.Bid bidOrder : Order.Bid.getAccountOrders(account.getId(), assetId)) {
+            orderIds.add(Convert.toUnsignedLong(bidOrder.getId()));
         }
 
         JSONObject response = new JSONObject();
@@ -0,0 +1,48 @@
+package nxt.http;
+
+import nxt.Account;
+import nxt.AccountRanking;
+import nxt.util.Convert;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static nxt.http.JSONResponses.INCORRECT_ACCOUNT;
+import static nxt.http.JSONResponses.MISSING_ACCOUNT;
+import static nxt.http.JSONResponses.UNKNOWN_ACCOUNT;
+
+public final class GetAccountRank extends APIServlet.APIRequestHandler {
+
+    static final GetAccountRank instance = new GetAccountRank();
+
+    private GetAccountRank() {
+        super("account");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+
+        String account = req.getParameter("account");
+        if (account == null) {
+            return MISSING_ACCOUNT;
+        }
+
+        Account accountData;
+        try {
+            accountData = Account.getAccount(Convert.parseUnsignedLong(account));
+        } catch (RuntimeException e) {
+            return INCORRECT_ACCOUNT;
+        }
+        if (accountData == null) {
+            return UNKNOWN_ACCOUNT;
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("rank", AccountRanking.getAccountRank(accountData));
+        response.put("balance", accountData.getBalance());
+        response.put("numberOfAccounts", AccountRanking.getNumberOfRankedAccounts());
+        return response;
+    }
+
+}
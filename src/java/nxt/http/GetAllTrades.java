@@ -7,9 +7,11 @@ import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.Collection;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 
+import static nxt.http.JSONResponses.INCORRECT_CURSOR;
 import static nxt.http.JSONResponses.INCORRECT_TIMESTAMP;
 import static nxt.http.JSONResponses.MISSING_TIMESTAMP;
 
@@ -17,8 +19,10 @@ public final class GetAllTrades extends APIServlet.APIRequestHandler {
 
     static final GetAllTrades instance = new GetAllTrades();
 
+    private static final int MAX_LIMIT = 1000;
+
     private GetAllTrades() {
-        super("timestamp");
+        super("timestamp", "cursor", "limit", "stream");
     }
     
     @Override
@@ -39,34 +43,94 @@ public final class GetAllTrades extends APIServlet.APIRequestHandler {
             return INCORRECT_TIMESTAMP;
         }
 
-        JSONObject response = new JSONObject();
-        
-        JSONArray tradesData = new JSONArray();
+        final List<Trade> trades = Trade.getAllTradesByTime();
+        int start = Trade.getFirstIndex(trades, timestamp);
+        String cursor = req.getParameter("cursor");
+        if (cursor != null) {
+            int afterCursor = getIndexAfter(trades, cursor);
+            if (afterCursor < 0) {
+                return INCORRECT_CURSOR;
+            }
+            start = Math.max(start, afterCursor);
+        }
+        final int from = start;
 
-        try {
-            Collection<List<Trade>> trades = Trade.getAllTrades();
-
-            for (List<Trade> assetTrades : trades) {
-                for (Trade trade : assetTrades) {
-                    if (trade.getTimestamp() >= timestamp) {
-                        JSONObject tradeData = new JSONObject();
-                        tradeData.put("timestamp", trade.getTimestamp());
-                        tradeData.put("quantity", trade.getQuantity());
-                        tradeData.put("price", trade.getPrice());
-                        tradeData.put("asset", Convert.toUnsignedLong(trade.getAssetId()));
-                        tradeData.put("askOrder", Convert.toUnsignedLong(trade.getAskOrderId()));
-                        tradeData.put("bidOrder", Convert.toUnsignedLong(trade.getBidOrderId()));
-                        tradeData.put("block", Convert.toUnsignedLong(trade.getBlockId()));
-                        tradesData.add(tradeData);
+        if ("true".equalsIgnoreCase(req.getParameter("stream"))) {
+            // the whole range, written trade by trade instead of being collected into one response object
+            return new JSONStreamAware() {
+                @Override
+                public void writeJSONString(Writer out) throws IOException {
+                    out.write("{\"trades\":[");
+                    for (int i = from; i < trades.size(); i++) {
+                        if (i > from) {
+                            out.write(',');
+                        }
+                        tradeData(trades.get(i)).writeJSONString(out);
                     }
+                    out.write("]}");
                 }
-            }
-        } catch (RuntimeException e) {
-            response.put("error", e.toString());
+            };
+        }
+
+        int limit;
+        try {
+            limit = Math.min(Integer.parseInt(req.getParameter("limit")), MAX_LIMIT);
+        } catch (NumberFormatException e) {
+            limit = MAX_LIMIT;
+        }
+
+        JSONArray tradesData = new JSONArray();
+        int to = Math.min(from + Math.max(limit, 0), trades.size());
+        for (int i = from; i < to; i++) {
+            tradesData.add(tradeData(trades.get(i)));
         }
 
+        JSONObject response = new JSONObject();
         response.put("trades", tradesData);
+        if (to < trades.size() && to > from) {
+            Trade lastTrade = trades.get(to - 1);
+            response.put("nextCursor", lastTrade.getTimestamp() + ":" + Convert.toUnsignedLong(lastTrade.getAskOrderId())
+                    + ":" + Convert.toUnsignedLong(lastTrade.getBidOrderId()));
+        }
         return response;
     }
 
+    // a cursor names the last trade returned by its timestamp and orders, which match only once, so it stays valid
+    // when trades are added or the log is truncated, unless that trade itself is removed
+    private static int getIndexAfter(List<Trade> trades, String cursor) {
+        String[] parts = cursor.split(":");
+        if (parts.length != 3) {
+            return -1;
+        }
+        int timestamp;
+        Long askOrderId;
+        Long bidOrderId;
+        try {
+            timestamp = Integer.parseInt(parts[0]);
+            askOrderId = Convert.parseUnsignedLong(parts[1]);
+            bidOrderId = Convert.parseUnsignedLong(parts[2]);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+        for (int i = Trade.getFirstIndex(trades, timestamp); i < trades.size() && trades.get(i).getTimestamp() == timestamp; i++) {
+            Trade trade = trades.get(i);
+            if (trade.getAskOrderId().equals(askOrderId) && trade.getBidOrderId().equals(bidOrderId)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static JSONObject tradeData(Trade trade) {
+        JSONObject tradeData = new JSONObject();
+        tradeData.put("timestamp", trade.getTimestamp());
+        tradeData.put("quantity", trade.getQuantity());
+        tradeData.put("price", trade.getPrice());
+        tradeData.put("asset", Convert.toUnsignedLong(trade.getAssetId()));
+        tradeData.put("askOrder", Convert.toUnsignedLong(trade.getAskOrderId()));
+        tradeData.put("bidOrder", Convert.toUnsignedLong(trade.getBidOrderId()));
+        tradeData.put("block", Convert.toUnsignedLong(trade.getBlockId()));
+        return tradeData;
+    }
+
 }
@@ -0,0 +1,73 @@
+package nxt.http;
+
+import nxt.Asset;
+import nxt.AssetHolders;
+import nxt.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static nxt.http.JSONResponses.INCORRECT_ASSET;
+import static nxt.http.JSONResponses.MISSING_ASSET;
+import static nxt.http.JSONResponses.UNKNOWN_ASSET;
+
+public final class GetAssetAccounts extends APIServlet.APIRequestHandler {
+
+    static final GetAssetAccounts instance = new GetAssetAccounts();
+
+    private static final int MAX_LIMIT = 1000;
+
+    private GetAssetAccounts() {
+        super("asset", "limit", "offset");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+
+        String asset = req.getParameter("asset");
+        if (asset == null) {
+            return MISSING_ASSET;
+        }
+
+        Long assetId;
+        try {
+            assetId = Convert.parseUnsignedLong(asset);
+        } catch (RuntimeException e) {
+            return INCORRECT_ASSET;
+        }
+
+        if (Asset.getAsset(assetId) == null) {
+            return UNKNOWN_ASSET;
+        }
+
+        int limit;
+        try {
+            limit = Math.min(Integer.parseInt(req.getParameter("limit")), MAX_LIMIT);
+        } catch (NumberFormatException e) {
+            limit = 100;
+        }
+
+        int offset;
+        try {
+            offset = Math.max(Integer.parseInt(req.getParameter("offset")), 0);
+        } catch (NumberFormatException e) {
+            offset = 0;
+        }
+
+        JSONArray accounts = new JSONArray();
+        for (AssetHolders.Holder holder : AssetHolders.getHolders(assetId, limit, offset)) {
+            JSONObject accountData = new JSONObject();
+            accountData.put("account", Convert.toUnsignedLong(holder.getAccountId()));
+            accountData.put("quantity", holder.getQuantity());
+            accounts.add(accountData);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("accounts", accounts);
+        response.put("numberOfAccounts", AssetHolders.getNumberOfHolders(assetId));
+        return response;
+    }
+
+}
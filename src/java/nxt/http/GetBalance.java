@@ -42,11 +42,10 @@ public final class GetBalance extends APIServlet.APIRequestHandler {
 
         } else {
 
-            synchronized (accountData) {
-                response.put("balance", accountData.getBalance());
-                response.put("unconfirmedBalance", accountData.getUnconfirmedBalance());
-                response.put("effectiveBalance", accountData.getEffectiveBalance() * 100L);
-            }
+            Account.State state = accountData.getState();
+            response.put("balance", state.getBalance());
+            response.put("unconfirmedBalance", state.getUnconfirmedBalance());
+            response.put("effectiveBalance", state.getEffectiveBalance() * 100L);
 
         }
         return response;
@@ -0,0 +1,83 @@
+package nxt.http;
+
+import nxt.Asset;
+import nxt.Candles;
+import nxt.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static nxt.http.JSONResponses.INCORRECT_ASSET;
+import static nxt.http.JSONResponses.INCORRECT_INTERVAL;
+import static nxt.http.JSONResponses.INCORRECT_TIMESTAMP;
+import static nxt.http.JSONResponses.MISSING_ASSET;
+import static nxt.http.JSONResponses.MISSING_INTERVAL;
+import static nxt.http.JSONResponses.UNKNOWN_ASSET;
+
+public final class GetCandles extends APIServlet.APIRequestHandler {
+
+    static final GetCandles instance = new GetCandles();
+
+    private GetCandles() {
+        super("asset", "interval", "from", "to");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+
+        String asset = req.getParameter("asset");
+        if (asset == null) {
+            return MISSING_ASSET;
+        }
+
+        Long assetId;
+        try {
+            assetId = Convert.parseUnsignedLong(asset);
+            if (Asset.getAsset(assetId) == null) {
+                return UNKNOWN_ASSET;
+            }
+        } catch (RuntimeException e) {
+            return INCORRECT_ASSET;
+        }
+
+        String intervalValue = req.getParameter("interval");
+        if (intervalValue == null) {
+            return MISSING_INTERVAL;
+        }
+        Candles.Interval interval = Candles.Interval.fromName(intervalValue);
+        if (interval == null) {
+            return INCORRECT_INTERVAL;
+        }
+
+        int from, to;
+        try {
+            String fromValue = req.getParameter("from");
+            from = fromValue == null ? 0 : Integer.parseInt(fromValue);
+            String toValue = req.getParameter("to");
+            to = toValue == null ? Integer.MAX_VALUE : Integer.parseInt(toValue);
+        } catch (NumberFormatException e) {
+            return INCORRECT_TIMESTAMP;
+        }
+
+        JSONArray candlesData = new JSONArray();
+        for (Candles.Candle candle : Candles.getCandles(assetId, interval, from, to)) {
+            JSONObject candleData = new JSONObject();
+            candleData.put("timestamp", candle.getTimestamp());
+            candleData.put("open", candle.getOpen());
+            candleData.put("high", candle.getHigh());
+            candleData.put("low", candle.getLow());
+            candleData.put("close", candle.getClose());
+            candleData.put("volume", candle.getVolume());
+            candleData.put("numberOfTrades", candle.getNumberOfTrades());
+            candlesData.add(candleData);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("interval", interval.getName());
+        response.put("candles", candlesData);
+        return response;
+    }
+
+}
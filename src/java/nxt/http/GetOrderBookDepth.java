@@ -0,0 +1,69 @@
+package nxt.http;
+
+import nxt.Asset;
+import nxt.Order;
+import nxt.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+import static nxt.http.JSONResponses.INCORRECT_ASSET;
+import static nxt.http.JSONResponses.MISSING_ASSET;
+import static nxt.http.JSONResponses.UNKNOWN_ASSET;
+
+public final class GetOrderBookDepth extends APIServlet.APIRequestHandler {
+
+    static final GetOrderBookDepth instance = new GetOrderBookDepth();
+
+    private GetOrderBookDepth() {
+        super("asset", "levels");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+
+        String asset = req.getParameter("asset");
+        if (asset == null) {
+            return MISSING_ASSET;
+        }
+
+        Long assetId;
+        try {
+            assetId = Convert.parseUnsignedLong(asset);
+        } catch (RuntimeException e) {
+            return INCORRECT_ASSET;
+        }
+
+        if (Asset.getAsset(assetId) == null) {
+            return UNKNOWN_ASSET;
+        }
+
+        int levels;
+        try {
+            levels = Math.max(Integer.parseInt(req.getParameter("levels")), 0);
+        } catch (NumberFormatException e) {
+            levels = Integer.MAX_VALUE;
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("asks", toJSON(Order.Ask.getDepth(assetId, levels)));
+        response.put("bids", toJSON(Order.Bid.getDepth(assetId, levels)));
+        return response;
+    }
+
+    private static JSONArray toJSON(List<Order.DepthLevel> depth) {
+        JSONArray levelsData = new JSONArray();
+        for (Order.DepthLevel level : depth) {
+            JSONObject levelData = new JSONObject();
+            levelData.put("price", level.getPrice());
+            levelData.put("quantity", level.getQuantity());
+            levelData.put("numberOfOrders", level.getNumberOfOrders());
+            levelsData.add(levelData);
+        }
+        return levelsData;
+    }
+
+}
@@ -41,6 +41,10 @@ public final class GetPeer extends APIServlet.APIRequestHandler {
         response.put("weight", peer.getWeight());
         response.put("downloadedVolume", peer.getDownloadedVolume());
         response.put("uploadedVolume", peer.getUploadedVolume());
+        response.put("rawDownloadedVolume", peer.getRawDownloadedVolume());
+        response.put("rawUploadedVolume", peer.getRawUploadedVolume());
+        response.put("connectLatency", peer.getConnectLatency());
+        response.put("requestLatency", peer.getRequestLatency());
         response.put("application", peer.getApplication());
         response.put("version", peer.getVersion());
         response.put("platform", peer.getPlatform());
@@ -0,0 +1,59 @@
+package nxt.http;
+
+import nxt.Poll;
+import nxt.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static nxt.http.JSONResponses.INCORRECT_POLL;
+import static nxt.http.JSONResponses.MISSING_POLL;
+import static nxt.http.JSONResponses.UNKNOWN_POLL;
+
+public final class GetPollResults extends APIServlet.APIRequestHandler {
+
+    static final GetPollResults instance = new GetPollResults();
+
+    private GetPollResults() {
+        super("poll");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+
+        String poll = req.getParameter("poll");
+        if (poll == null) {
+            return MISSING_POLL;
+        }
+
+        Poll pollData;
+        try {
+            pollData = Poll.getPoll(Convert.parseUnsignedLong(poll));
+            if (pollData == null) {
+                return UNKNOWN_POLL;
+            }
+        } catch (RuntimeException e) {
+            return INCORRECT_POLL;
+        }
+
+        String[] options = pollData.getOptions();
+        long[] results = pollData.getResults();
+        JSONArray resultsData = new JSONArray();
+        for (int i = 0; i < options.length; i++) {
+            JSONObject resultData = new JSONObject();
+            resultData.put("option", options[i]);
+            resultData.put("result", results[i]);
+            resultsData.add(resultData);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("poll", Convert.toUnsignedLong(pollData.getId()));
+        response.put("optionsAreBinary", pollData.isOptionsAreBinary());
+        response.put("results", resultsData);
+        response.put("numberOfVoters", pollData.getVoters().size());
+        return response;
+    }
+
+}
@@ -1,14 +1,13 @@
 package nxt.http;
 
 import nxt.Account;
-import nxt.Alias;
 import nxt.Asset;
 import nxt.Generator;
 import nxt.Nxt;
-import nxt.Order;
 import nxt.Poll;
-import nxt.Trade;
+import nxt.Statistics;
 import nxt.Vote;
+import nxt.peer.Broadcaster;
 import nxt.peer.Peer;
 import nxt.peer.Peers;
 import nxt.util.Convert;
@@ -16,7 +15,6 @@ import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.List;
 
 public final class GetState extends APIServlet.APIRequestHandler {
 
@@ -34,29 +32,25 @@ public final class GetState extends APIServlet.APIRequestHandler {
         response.put("lastBlock", Nxt.getBlockchain().getLastBlock().getStringId());
         response.put("cumulativeDifficulty", Nxt.getBlockchain().getLastBlock().getCumulativeDifficulty().toString());
 
-        long totalEffectiveBalance = 0;
-        for (Account account : Account.getAllAccounts()) {
-            long effectiveBalance = account.getEffectiveBalance();
-            if (effectiveBalance > 0) {
-                totalEffectiveBalance += effectiveBalance;
-            }
-        }
-        response.put("totalEffectiveBalance", totalEffectiveBalance * 100L);
+        response.put("totalEffectiveBalance", Statistics.getTotalEffectiveBalance() * 100L);
 
-        response.put("numberOfBlocks", Nxt.getBlockchain().getBlockCount());
-        response.put("numberOfTransactions", Nxt.getBlockchain().getTransactionCount());
+        response.put("numberOfBlocks", Statistics.getNumberOfBlocks());
+        response.put("numberOfTransactions", Statistics.getNumberOfTransactions());
         response.put("numberOfAccounts", Account.getAllAccounts().size());
         response.put("numberOfAssets", Asset.getAllAssets().size());
-        response.put("numberOfOrders", Order.Ask.getAllAskOrders().size() + Order.Bid.getAllBidOrders().size());
-        int numberOfTrades = 0;
-        for (List<Trade> assetTrades : Trade.getAllTrades()) {
-            numberOfTrades += assetTrades.size();
-        }
-        response.put("numberOfTrades", numberOfTrades);
-        response.put("numberOfAliases", Alias.getAllAliases().size());
+        response.put("numberOfOrders", Statistics.getNumberOfOrders());
+        response.put("numberOfTrades", Statistics.getNumberOfTrades());
+        response.put("numberOfAliases", Statistics.getNumberOfAliases());
         response.put("numberOfPolls", Poll.getAllPolls().size());
         response.put("numberOfVotes", Vote.getVotes().size());
         response.put("numberOfPeers", Peers.getAllPeers().size());
+        response.put("broadcastQueueDepth", Broadcaster.getQueueDepth());
+        response.put("numberOfPendingBroadcasts", Broadcaster.getNumberOfPendingBroadcasts());
+        response.put("numberOfBroadcasts", Broadcaster.getNumberOfBroadcasts());
+        response.put("numberOfDuplicateBroadcasts", Broadcaster.getNumberOfDuplicates());
+        response.put("numberOfFailedBroadcasts", Broadcaster.getNumberOfFailedBroadcasts());
+        response.put("blockPropagationTime", Broadcaster.getBlockPropagationTime());
+        response.put("transactionPropagationTime", Broadcaster.getTransactionPropagationTime());
         //response.put("numberOfUsers", Users.getAllUsers().size()); no longer meaningful
         response.put("numberOfUnlockedAccounts", Generator.getAllGenerators().size());
         Peer lastBlockchainFeeder = Nxt.getBlockchainProcessor().getLastBlockchainFeeder();
@@ -0,0 +1,57 @@
+package nxt.http;
+
+import nxt.Account;
+import nxt.AccountRanking;
+import nxt.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+public final class GetTopAccounts extends APIServlet.APIRequestHandler {
+
+    static final GetTopAccounts instance = new GetTopAccounts();
+
+    private static final int MAX_LIMIT = 1000;
+
+    private GetTopAccounts() {
+        super("limit", "offset");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+
+        int limit;
+        try {
+            limit = Math.min(Integer.parseInt(req.getParameter("limit")), MAX_LIMIT);
+        } catch (NumberFormatException e) {
+            limit = 100;
+        }
+
+        int offset;
+        try {
+            offset = Math.max(Integer.parseInt(req.getParameter("offset")), 0);
+        } catch (NumberFormatException e) {
+            offset = 0;
+        }
+
+        JSONArray accounts = new JSONArray();
+        List<Account> topAccounts = AccountRanking.getTopAccounts(limit, offset);
+        int rank = offset;
+        for (Account account : topAccounts) {
+            JSONObject accountData = new JSONObject();
+            accountData.put("account", Convert.toUnsignedLong(account.getId()));
+            accountData.put("balance", account.getBalance());
+            accountData.put("rank", ++rank);
+            accounts.add(accountData);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("accounts", accounts);
+        response.put("numberOfAccounts", AccountRanking.getNumberOfRankedAccounts());
+        return response;
+    }
+
+}
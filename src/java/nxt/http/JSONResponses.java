@@ -32,6 +32,10 @@ public final class JSONResponses {
     public static final JSONStreamAware INCORRECT_ACCOUNT = incorrect("account");
     public static final JSONStreamAware MISSING_TIMESTAMP = missing("timestamp");
     public static final JSONStreamAware INCORRECT_TIMESTAMP = incorrect("timestamp");
+    public static final JSONStreamAware INCORRECT_CURSOR = incorrect("cursor", "(the trade it points to no longer exists)");
+    public static final JSONStreamAware MISSING_INTERVAL = missing("interval");
+    public static final JSONStreamAware INCORRECT_INTERVAL = incorrect("interval", "(must be one of 1m, 1h, 1d)");
+    public static final JSONStreamAware MISSING_QUERY = missing("query");
     public static final JSONStreamAware UNKNOWN_ACCOUNT = unknown("account");
     public static final JSONStreamAware UNKNOWN_ALIAS = unknown("alias");
     public static final JSONStreamAware MISSING_ASSET = missing("asset");
@@ -42,13 +42,11 @@ public final class ListAccountAliases extends APIServlet.APIRequestHandler {
         }
 
         JSONArray aliases = new JSONArray();
-        for (Alias alias : Alias.getAllAliases()) {
-            if (alias.getAccount().equals(accountData)) {
-                JSONObject aliasData = new JSONObject();
-                aliasData.put("alias", alias.getAliasName());
-                aliasData.put("uri", alias.getURI());
-                aliases.add(aliasData);
-            }
+        for (Alias alias : Alias.getAliasesByAccount(accountId)) {
+            JSONObject aliasData = new JSONObject();
+            aliasData.put("alias", alias.getAliasName());
+            aliasData.put("uri", alias.getURI());
+            aliases.add(aliasData);
         }
 
         JSONObject response = new JSONObject();
@@ -73,8 +73,8 @@ public final class PlaceAskOrder extends CreateTransaction {
             return UNKNOWN_ACCOUNT;
         }
 
-        Integer assetBalance = account.getUnconfirmedAssetBalance(asset);
-        if (assetBalance == null || quantity > assetBalance) {
+        long assetBalance = account.getUnconfirmedAssetBalance(asset);
+        if (quantity > assetBalance) {
             return NOT_ENOUGH_ASSETS;
         }
 
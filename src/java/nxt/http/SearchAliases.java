@@ -0,0 +1,56 @@
+package nxt.http;
+
+import nxt.Alias;
+import nxt.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static nxt.http.JSONResponses.MISSING_QUERY;
+
+public final class SearchAliases extends APIServlet.APIRequestHandler {
+
+    static final SearchAliases instance = new SearchAliases();
+
+    private static final int MAX_LIMIT = 100;
+
+    private SearchAliases() {
+        super("query", "limit");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+
+        String query = req.getParameter("query");
+        if (query == null) {
+            return MISSING_QUERY;
+        }
+
+        int limit;
+        try {
+            limit = Math.min(Integer.parseInt(req.getParameter("limit")), MAX_LIMIT);
+        } catch (NumberFormatException e) {
+            limit = 10;
+        }
+
+        JSONArray aliases = new JSONArray();
+        for (Alias alias : Alias.searchAliases(query.trim(), limit)) {
+            JSONObject aliasData = new JSONObject();
+            aliasData.put("account", Convert.toUnsignedLong(alias.getAccount().getId()));
+            aliasData.put("alias", alias.getAliasName());
+            if (alias.getURI().length() > 0) {
+                aliasData.put("uri", alias.getURI());
+            }
+            aliasData.put("timestamp", alias.getTimestamp());
+            aliasData.put("id", Convert.toUnsignedLong(alias.getId()));
+            aliases.add(aliasData);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("aliases", aliases);
+        return response;
+    }
+
+}
@@ -0,0 +1,58 @@
+package nxt.http;
+
+import nxt.Asset;
+import nxt.Trade;
+import nxt.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static nxt.http.JSONResponses.MISSING_QUERY;
+
+public final class SearchAssets extends APIServlet.APIRequestHandler {
+
+    static final SearchAssets instance = new SearchAssets();
+
+    private static final int MAX_LIMIT = 100;
+
+    private SearchAssets() {
+        super("query", "limit");
+    }
+
+    @Override
+    JSONStreamAware processRequest(HttpServletRequest req) {
+
+        String query = req.getParameter("query");
+        if (query == null) {
+            return MISSING_QUERY;
+        }
+
+        int limit;
+        try {
+            limit = Math.min(Integer.parseInt(req.getParameter("limit")), MAX_LIMIT);
+        } catch (NumberFormatException e) {
+            limit = 10;
+        }
+
+        JSONArray assetsJSONArray = new JSONArray();
+        for (Asset asset : Asset.searchAssets(query.trim(), limit)) {
+            JSONObject assetJSON = new JSONObject();
+            assetJSON.put("account", Convert.toUnsignedLong(asset.getAccountId()));
+            assetJSON.put("name", asset.getName());
+            if (asset.getDescription().length() > 0) {
+                assetJSON.put("description", asset.getDescription());
+            }
+            assetJSON.put("quantity", asset.getQuantity());
+            assetJSON.put("asset", Convert.toUnsignedLong(asset.getId()));
+            assetJSON.put("numberOfTrades", Trade.getTrades(asset.getId()).size());
+            assetsJSONArray.add(assetJSON);
+        }
+
+        JSONObject response = new JSONObject();
+        response.put("assets", assetsJSONArray);
+        return response;
+    }
+
+}
@@ -0,0 +1,288 @@
+package nxt.peer;
+
+import nxt.util.Listener;
+import nxt.util.Logger;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// outgoing blocks and transactions, queued per peer and sent by a background thread so the caller never waits
+// each broadcast goes to sendToPeersLimit peers, a peer that fails is replaced by the next candidate
+// every peer has at most one request in flight, blocks are sent before transactions
+// a broadcast may carry a fallback request for peers that do not support its request type
+public final class Broadcaster {
+
+    private static final int MAX_PEER_QUEUE_SIZE = 1000;
+
+    private static final class Broadcast implements Comparable<Broadcast> {
+
+        private final String payload;
+        private final JSONStreamAware request;
+        private final String requestType;
+        private final JSONStreamAware fallbackRequest;
+        private final boolean isBlock;
+        private final long sequence;
+        private final long startTime = System.currentTimeMillis();
+        private final List<Peer> candidates;
+        private int nextCandidate;
+        private int pending;
+        private int successful;
+        private boolean done;
+
+        private Broadcast(String payload, String requestType, String fallbackPayload, boolean isBlock, long sequence, List<Peer> candidates) {
+            this.payload = payload;
+            this.request = prepare(payload);
+            this.requestType = requestType;
+            this.fallbackRequest = fallbackPayload != null ? prepare(fallbackPayload) : null;
+            this.isBlock = isBlock;
+            this.sequence = sequence;
+            this.candidates = candidates;
+        }
+
+        private static JSONStreamAware prepare(String payload) {
+            final char[] jsonChars = payload.toCharArray();
+            return new JSONStreamAware() {
+                @Override
+                public void writeJSONString(Writer out) throws IOException {
+                    out.write(jsonChars);
+                }
+            };
+        }
+
+        @Override
+        public int compareTo(Broadcast o) {
+            if (isBlock != o.isBlock) {
+                return isBlock ? -1 : 1;
+            }
+            return sequence < o.sequence ? -1 : (sequence > o.sequence ? 1 : 0);
+        }
+
+    }
+
+    private static final class PeerQueue {
+        private final PriorityQueue<Broadcast> broadcasts = new PriorityQueue<>();
+        private boolean sending;
+    }
+
+    // all state is guarded by the Broadcaster class lock
+    private static final Map<Peer, PeerQueue> peerQueues = new HashMap<>();
+    private static final Map<String, Broadcast> pendingBroadcasts = new HashMap<>();
+    private static long sequence;
+    private static int queueDepth;
+    private static long numberOfBroadcasts;
+    private static long numberOfDuplicates;
+    private static long numberOfFailedBroadcasts;
+    // moving averages in milliseconds of the time until a broadcast reached sendToPeersLimit peers
+    private static long blockPropagationTime = -1;
+    private static long transactionPropagationTime = -1;
+    private static boolean shutdown;
+
+    private static final Thread broadcastThread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    List<Peer> peers = new ArrayList<>();
+                    List<Broadcast> broadcasts = new ArrayList<>();
+                    synchronized (Broadcaster.class) {
+                        while (! shutdown && ! takeReady(peers, broadcasts)) {
+                            Broadcaster.class.wait();
+                        }
+                        if (shutdown) {
+                            return;
+                        }
+                    }
+                    for (int i = 0; i < peers.size(); i++) {
+                        send(peers.get(i), broadcasts.get(i));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
+                t.printStackTrace();
+                System.exit(1);
+            }
+        }
+    }, "Broadcaster");
+
+    static {
+        broadcastThread.setDaemon(true);
+        broadcastThread.start();
+    }
+
+    // fallbackRequest, if not null, is sent instead to the peers that answer request as an unsupported request type
+    static synchronized void broadcast(JSONObject request, JSONObject fallbackRequest, List<Peer> candidates) {
+        request.put("protocol", 1);
+        String payload = request.toJSONString();
+        if (pendingBroadcasts.containsKey(payload)) {
+            numberOfDuplicates += 1;
+            return;
+        }
+        numberOfBroadcasts += 1;
+        String fallbackPayload = null;
+        if (fallbackRequest != null) {
+            fallbackRequest.put("protocol", 1);
+            fallbackPayload = fallbackRequest.toJSONString();
+        }
+        String requestType = (String)request.get("requestType");
+        Broadcast broadcast = new Broadcast(payload, requestType, fallbackPayload, "processBlock".equals(requestType), sequence++, candidates);
+        pendingBroadcasts.put(payload, broadcast);
+        for (int i = 0; i < Peers.sendToPeersLimit; i++) {
+            if (! assignNextCandidate(broadcast)) {
+                break;
+            }
+        }
+        checkDone(broadcast);
+        Broadcaster.class.notifyAll();
+    }
+
+    static synchronized void shutdown() {
+        shutdown = true;
+        Broadcaster.class.notifyAll();
+    }
+
+    public static synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public static synchronized int getNumberOfPendingBroadcasts() {
+        return pendingBroadcasts.size();
+    }
+
+    public static synchronized long getNumberOfBroadcasts() {
+        return numberOfBroadcasts;
+    }
+
+    public static synchronized long getNumberOfDuplicates() {
+        return numberOfDuplicates;
+    }
+
+    public static synchronized long getNumberOfFailedBroadcasts() {
+        return numberOfFailedBroadcasts;
+    }
+
+    public static synchronized long getBlockPropagationTime() {
+        return blockPropagationTime;
+    }
+
+    public static synchronized long getTransactionPropagationTime() {
+        return transactionPropagationTime;
+    }
+
+    // the next broadcast for each idle peer with a non-empty queue, broadcasts that are done already are dropped
+    private static boolean takeReady(List<Peer> peers, List<Broadcast> broadcasts) {
+        Iterator<Map.Entry<Peer, PeerQueue>> iterator = peerQueues.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Peer, PeerQueue> entry = iterator.next();
+            PeerQueue peerQueue = entry.getValue();
+            if (peerQueue.sending) {
+                continue;
+            }
+            Broadcast broadcast;
+            while ((broadcast = peerQueue.broadcasts.poll()) != null) {
+                queueDepth -= 1;
+                if (! broadcast.done) {
+                    break;
+                }
+                broadcast.pending -= 1;
+            }
+            if (broadcast != null) {
+                peerQueue.sending = true;
+                peers.add(entry.getKey());
+                broadcasts.add(broadcast);
+            } else {
+                iterator.remove();
+            }
+        }
+        return ! peers.isEmpty();
+    }
+
+    private static void send(final Peer peer, final Broadcast broadcast) {
+        final boolean isFallback = broadcast.fallbackRequest != null && ! ((PeerImpl)peer).isRequestTypeSupported(broadcast.requestType);
+        peer.sendAsync(isFallback ? broadcast.fallbackRequest : broadcast.request, new Listener<JSONObject>() {
+            @Override
+            public void notify(JSONObject response) {
+                synchronized (Broadcaster.class) {
+                    PeerQueue peerQueue = peerQueues.get(peer);
+                    if (peerQueue != null) {
+                        peerQueue.sending = false;
+                    }
+                    if (! isFallback && broadcast.fallbackRequest != null && response != null
+                            && PeerServlet.UNSUPPORTED_REQUEST_TYPE_ERROR.equals(response.get("error"))) {
+                        // sent again to the same peer, as the fallback request this time
+                        ((PeerImpl)peer).setRequestTypeUnsupported(broadcast.requestType);
+                        if (peerQueue != null && ! broadcast.done) {
+                            peerQueue.broadcasts.add(broadcast);
+                            queueDepth += 1;
+                            Broadcaster.class.notifyAll();
+                            return;
+                        }
+                    }
+                    broadcast.pending -= 1;
+                    if (response != null && response.get("error") == null) {
+                        broadcast.successful += 1;
+                    } else if (! broadcast.done) {
+                        assignNextCandidate(broadcast);
+                    }
+                    checkDone(broadcast);
+                    Broadcaster.class.notifyAll();
+                }
+            }
+        });
+    }
+
+    private static boolean assignNextCandidate(Broadcast broadcast) {
+        while (broadcast.nextCandidate < broadcast.candidates.size()) {
+            Peer peer = broadcast.candidates.get(broadcast.nextCandidate++);
+            PeerQueue peerQueue = peerQueues.get(peer);
+            if (peerQueue == null) {
+                peerQueue = new PeerQueue();
+                peerQueues.put(peer, peerQueue);
+            }
+            if (peerQueue.broadcasts.size() >= MAX_PEER_QUEUE_SIZE) {
+                continue;
+            }
+            peerQueue.broadcasts.add(broadcast);
+            broadcast.pending += 1;
+            queueDepth += 1;
+            return true;
+        }
+        return false;
+    }
+
+    private static void checkDone(Broadcast broadcast) {
+        if (broadcast.done) {
+            return;
+        }
+        if (broadcast.successful >= Peers.sendToPeersLimit) {
+            long time = System.currentTimeMillis() - broadcast.startTime;
+            if (broadcast.isBlock) {
+                blockPropagationTime = average(blockPropagationTime, time);
+            } else {
+                transactionPropagationTime = average(transactionPropagationTime, time);
+            }
+        } else if (broadcast.pending > 0) {
+            return;
+        } else {
+            numberOfFailedBroadcasts += 1;
+        }
+        broadcast.done = true;
+        pendingBroadcasts.remove(broadcast.payload);
+    }
+
+    private static long average(long average, long time) {
+        return average < 0 ? time : (average * 7 + time) / 8;
+    }
+
+    private Broadcaster() {} // never
+
+}
@@ -0,0 +1,40 @@
+package nxt.peer;
+
+import nxt.Nxt;
+import nxt.Transaction;
+import nxt.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+final class GetTransactions extends PeerServlet.PeerRequestHandler {
+
+    static final GetTransactions instance = new GetTransactions();
+
+    static final int MAX_TRANSACTIONS = 255;
+
+    private GetTransactions() {}
+
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+
+        JSONObject response = new JSONObject();
+
+        JSONArray transactionsData = new JSONArray();
+        JSONArray transactionIds = (JSONArray)request.get("transactionIds");
+        if (transactionIds != null) {
+            for (int i = 0; i < transactionIds.size() && i < MAX_TRANSACTIONS; i++) {
+                Transaction transaction = Nxt.getTransactionProcessor().getUnconfirmedTransaction(
+                        Convert.parseUnsignedLong((String) transactionIds.get(i)));
+                if (transaction != null) {
+                    transactionsData.add(transaction.getJSONObject());
+                }
+            }
+        }
+        response.put("transactions", transactionsData);
+
+        return response;
+    }
+
+}
@@ -0,0 +1,38 @@
+package nxt.peer;
+
+import nxt.Nxt;
+import nxt.util.Convert;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+import java.util.ArrayList;
+import java.util.List;
+
+final class GetUnconfirmedTransactionIds extends PeerServlet.PeerRequestHandler {
+
+    static final GetUnconfirmedTransactionIds instance = new GetUnconfirmedTransactionIds();
+
+    private GetUnconfirmedTransactionIds() {}
+
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+
+        JSONObject response = new JSONObject();
+
+        // without a cursor all unconfirmed transaction ids are returned
+        long since = request.get("since") instanceof Number ? ((Number)request.get("since")).longValue() : 0;
+        List<Long> unconfirmedTransactionIds = new ArrayList<>();
+        long cursor = Nxt.getTransactionProcessor().getUnconfirmedTransactionIds(since, unconfirmedTransactionIds);
+        JSONArray transactionIds = new JSONArray();
+        for (Long transactionId : unconfirmedTransactionIds) {
+            transactionIds.add(Convert.toUnsignedLong(transactionId));
+        }
+        response.put("unconfirmedTransactionIds", transactionIds);
+        response.put("cursor", cursor);
+
+        return response;
+    }
+
+}
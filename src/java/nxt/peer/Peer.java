@@ -1,9 +1,12 @@
 package nxt.peer;
 
 import nxt.NxtException;
+import nxt.util.Listener;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.util.concurrent.Future;
+
 public interface Peer extends Comparable<Peer> {
 
     public static enum State {
@@ -48,6 +51,16 @@ public interface Peer extends Comparable<Peer> {
 
     long getUploadedVolume();
 
+    long getRawDownloadedVolume();
+
+    long getRawUploadedVolume();
+
+    long getConnectLatency();
+
+    long getRequestLatency();
+
     JSONObject send(JSONStreamAware request);
 
+    Future<JSONObject> sendAsync(JSONStreamAware request, Listener<JSONObject> callback);
+
 }
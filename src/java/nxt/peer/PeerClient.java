@@ -0,0 +1,664 @@
+package nxt.peer;
+
+import nxt.util.Listener;
+import nxt.util.Logger;
+import nxt.util.ThreadPool;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// non-blocking HTTP/1.1 client for peer requests, all connections are served by a single selector thread
+// a connection is kept open after a complete response and reused by the next request to the same peer,
+// until the server closes it or the keep-alive timeout it advertised passes
+// host names are resolved, and complete responses decoded and parsed, by small pools of worker threads, keeping the selector thread free
+final class PeerClient {
+
+    // a request in progress, completed with null if it fails or its deadline passes
+    abstract static class Call implements Future<JSONObject> {
+
+        private final URL url;
+        private final String host;
+        private final int port;
+        private final String peer;
+        private final ByteBuffer request;
+        private final long deadline;
+        private final Listener<JSONObject> callback;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private InetSocketAddress address;
+        private Connection connection;
+        private boolean reused;
+        private long connectStartTime;
+        private long requestStartTime;
+        private byte[] data = new byte[8192];
+        private int size;
+        private int headerLength = -1;
+        private int statusCode;
+        private boolean http11;
+        private final Map<String, String> headers = new HashMap<>();
+        private int contentLength = -1;
+        private boolean chunked;
+        private int chunkPosition;
+        private int responseEnd = -1;
+        private byte[] body;
+        private volatile JSONObject response;
+
+        Call(URL url, byte[] body, boolean compressed, int timeout, Listener<JSONObject> callback) {
+            this.url = url;
+            this.host = url.getHost();
+            this.port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+            this.peer = host + ':' + port;
+            this.deadline = System.currentTimeMillis() + timeout;
+            this.callback = callback;
+            StringBuilder buf = new StringBuilder();
+            buf.append("POST ").append(url.getPath()).append(" HTTP/1.1\r\n");
+            buf.append("Host: ").append(peer).append("\r\n");
+            buf.append("Content-Type: text/plain; charset=UTF-8\r\n");
+            buf.append("Content-Length: ").append(body.length).append("\r\n");
+            if (compressed) {
+                buf.append("Content-Encoding: gzip\r\n");
+            }
+            if (Peers.enablePeerCompression) {
+                buf.append("Accept-Encoding: gzip\r\n");
+            }
+            buf.append("Connection: keep-alive\r\n\r\n");
+            byte[] header = buf.toString().getBytes(StandardCharsets.UTF_8);
+            this.request = ByteBuffer.allocate(header.length + body.length);
+            this.request.put(header).put(body);
+            this.request.flip();
+        }
+
+        // runs on the selector thread once a new connection is established, must not block
+        abstract void onConnect(long connectTime);
+
+        // runs on a worker thread
+        abstract JSONObject onResponse() throws IOException;
+
+        abstract void onFailure(Exception e);
+
+        // when the request started to be sent, on a new or a reused connection
+        long getRequestStartTime() {
+            return requestStartTime;
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        // with the transfer encoding removed, but still compressed if the content encoding says so
+        byte[] getBody() {
+            return body;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        @Override
+        public JSONObject get() throws InterruptedException {
+            done.await();
+            return response;
+        }
+
+        @Override
+        public JSONObject get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+            if (! done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return response;
+        }
+
+        private void append(ByteBuffer buffer) throws IOException {
+            int length = buffer.remaining();
+            if (size + length > Peers.maxPeerResponseSize) {
+                throw new IOException("Response from " + host + " exceeds " + Peers.maxPeerResponseSize + " bytes");
+            }
+            if (size + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+            }
+            buffer.get(data, size, length);
+            size += length;
+        }
+
+        // to send the request again on a new connection
+        private void reset() {
+            request.rewind();
+            reused = false;
+            size = 0;
+            headerLength = -1;
+            headers.clear();
+            contentLength = -1;
+            chunked = false;
+            responseEnd = -1;
+        }
+
+        // true once the whole response has been received, if the server says where it ends
+        // otherwise the response ends when the server closes the connection
+        private boolean isComplete() throws IOException {
+            if (headerLength < 0 && ! parseHeaders()) {
+                return false;
+            }
+            if (responseEnd < 0) {
+                if (chunked) {
+                    responseEnd = findChunkedEnd();
+                } else if (contentLength >= 0 && size - headerLength >= contentLength) {
+                    responseEnd = headerLength + contentLength;
+                }
+            }
+            return responseEnd >= 0;
+        }
+
+        // the server may send the next response on this connection only if this one ended where the data ends
+        private boolean isReusable() {
+            return http11 && responseEnd == size && ! "close".equalsIgnoreCase(getHeader("Connection"));
+        }
+
+        private long getKeepAliveTimeout() {
+            String keepAlive = getHeader("Keep-Alive");
+            if (keepAlive != null) {
+                for (String parameter : keepAlive.split(",")) {
+                    parameter = parameter.trim();
+                    if (parameter.startsWith("timeout=")) {
+                        try {
+                            return Math.min(Long.parseLong(parameter.substring(8).trim()) * 1000, MAX_KEEP_ALIVE_TIMEOUT);
+                        } catch (NumberFormatException ignore) {}
+                    }
+                }
+            }
+            return DEFAULT_KEEP_ALIVE_TIMEOUT;
+        }
+
+        private boolean parseHeaders() throws IOException {
+            for (int i = 3; i < size; i++) {
+                if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                    headerLength = i + 1;
+                    break;
+                }
+            }
+            if (headerLength < 0) {
+                return false;
+            }
+            String[] lines = new String(data, 0, headerLength - 4, StandardCharsets.ISO_8859_1).split("\r\n");
+            String[] statusLine = lines[0].split(" ");
+            if (statusLine.length < 2 || ! statusLine[0].startsWith("HTTP/")) {
+                throw new IOException("Invalid status line " + lines[0]);
+            }
+            http11 = "HTTP/1.1".equals(statusLine[0]);
+            try {
+                statusCode = Integer.parseInt(statusLine[1]);
+                for (int i = 1; i < lines.length; i++) {
+                    int colon = lines[i].indexOf(':');
+                    if (colon > 0) {
+                        headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+                    }
+                }
+                chunked = "chunked".equalsIgnoreCase(headers.get("transfer-encoding"));
+                if (! chunked && headers.get("content-length") != null) {
+                    contentLength = Integer.parseInt(headers.get("content-length"));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid response headers", e);
+            }
+            chunkPosition = headerLength;
+            return true;
+        }
+
+        // moves past the chunks received so far, returns where the response ends once the last chunk and trailer are in
+        private int findChunkedEnd() throws IOException {
+            while (true) {
+                int lineEnd = findLineEnd(chunkPosition);
+                if (lineEnd < 0) {
+                    return -1;
+                }
+                int chunkLength = parseChunkLength(chunkPosition, lineEnd);
+                if (chunkLength == 0) {
+                    int position = lineEnd + 2;
+                    while (true) {
+                        int trailerEnd = findLineEnd(position);
+                        if (trailerEnd < 0) {
+                            return -1;
+                        }
+                        if (trailerEnd == position) {
+                            return position + 2;
+                        }
+                        position = trailerEnd + 2;
+                    }
+                }
+                if (lineEnd + 2 + chunkLength + 2 > size) {
+                    return -1;
+                }
+                chunkPosition = lineEnd + 2 + chunkLength + 2;
+            }
+        }
+
+        private int findLineEnd(int position) {
+            for (int i = position; i + 1 < size; i++) {
+                if (data[i] == '\r' && data[i + 1] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int parseChunkLength(int position, int lineEnd) throws IOException {
+            String chunkSize = new String(data, position, lineEnd - position, StandardCharsets.ISO_8859_1);
+            int semicolon = chunkSize.indexOf(';');
+            int chunkLength;
+            try {
+                chunkLength = Integer.parseInt((semicolon >= 0 ? chunkSize.substring(0, semicolon) : chunkSize).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size " + chunkSize, e);
+            }
+            if (chunkLength < 0 || chunkLength > Peers.maxPeerResponseSize) {
+                throw new IOException("Invalid chunk size " + chunkSize);
+            }
+            return chunkLength;
+        }
+
+        private void readBody() throws IOException {
+            if (! isComplete()) {
+                if (headerLength < 0 || chunked || contentLength >= 0) {
+                    throw new IOException("Incomplete response from " + host);
+                }
+                responseEnd = size;
+            }
+            if (! chunked) {
+                body = Arrays.copyOfRange(data, headerLength, responseEnd);
+                return;
+            }
+            byte[] buffer = new byte[responseEnd - headerLength];
+            int length = 0;
+            int position = headerLength;
+            while (true) {
+                int lineEnd = findLineEnd(position);
+                int chunkLength = parseChunkLength(position, lineEnd);
+                if (chunkLength == 0) {
+                    break;
+                }
+                System.arraycopy(data, lineEnd + 2, buffer, length, chunkLength);
+                length += chunkLength;
+                position = lineEnd + 2 + chunkLength + 2;
+            }
+            body = Arrays.copyOf(buffer, length);
+        }
+
+        private void complete(JSONObject response) {
+            this.response = response;
+            data = null;
+            body = null;
+            done.countDown();
+            if (callback != null) {
+                try {
+                    callback.notify(response);
+                } catch (RuntimeException e) {
+                    Logger.logDebugMessage("Error in peer response callback", e);
+                }
+            }
+        }
+
+    }
+
+    // an open connection to a peer, attached to its selection key while idle
+    private static final class Connection {
+
+        private final String peer;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private long idleDeadline;
+
+        private Connection(String peer, SocketChannel channel) {
+            this.peer = peer;
+            this.channel = channel;
+        }
+
+    }
+
+    // used when the server does not advertise its own
+    private static final long DEFAULT_KEEP_ALIVE_TIMEOUT = 2000;
+    private static final long MAX_KEEP_ALIVE_TIMEOUT = 60000;
+
+    private static final Queue<Call> pendingCalls = new ConcurrentLinkedQueue<>();
+    // accessed by the selector thread only
+    private static final Set<Call> activeCalls = new HashSet<>();
+    private static final Map<String, List<Connection>> idleConnections = new HashMap<>();
+    private static final ByteBuffer readBuffer = ByteBuffer.allocateDirect(65536);
+    private static final Selector selector;
+    private static final ExecutorService resolverService = Executors.newFixedThreadPool(2);
+    private static final ExecutorService responseService = Executors.newFixedThreadPool(2);
+    private static volatile boolean shutdown;
+
+    static {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+        Thread selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (! shutdown) {
+                    try {
+                        select();
+                    } catch (Exception e) {
+                        Logger.logDebugMessage("Error in peer client", e);
+                    } catch (Throwable t) {
+                        Logger.logMessage("CRITICAL ERROR. PLEASE REPORT TO THE DEVELOPERS.\n" + t.toString());
+                        t.printStackTrace();
+                        System.exit(1);
+                    }
+                }
+                for (Call call : new ArrayList<>(activeCalls)) {
+                    fail(call, new IOException("Peer client shut down"), true);
+                }
+                for (List<Connection> connections : new ArrayList<>(idleConnections.values())) {
+                    for (Connection connection : new ArrayList<>(connections)) {
+                        closeIdle(connection);
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignore) {}
+            }
+        }, "PeerClient");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    static Call send(Call call) {
+        if (shutdown) {
+            fail(call, new IOException("Peer client shut down"), false);
+            return call;
+        }
+        pendingCalls.add(call);
+        selector.wakeup();
+        return call;
+    }
+
+    static void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+        ThreadPool.shutdownExecutor(resolverService);
+        ThreadPool.shutdownExecutor(responseService);
+    }
+
+    private static void select() throws IOException {
+        Call call;
+        while ((call = pendingCalls.poll()) != null) {
+            start(call);
+        }
+        long now = System.currentTimeMillis();
+        long nextDeadline = Long.MAX_VALUE;
+        List<Call> expiredCalls = new ArrayList<>();
+        for (Call activeCall : activeCalls) {
+            if (activeCall.deadline <= now) {
+                expiredCalls.add(activeCall);
+            } else {
+                nextDeadline = Math.min(nextDeadline, activeCall.deadline);
+            }
+        }
+        for (Call expiredCall : expiredCalls) {
+            fail(expiredCall, new SocketTimeoutException("Request to " + expiredCall.host + " timed out"), true);
+        }
+        List<Connection> expiredConnections = new ArrayList<>();
+        for (List<Connection> connections : idleConnections.values()) {
+            for (Connection connection : connections) {
+                if (connection.idleDeadline <= now) {
+                    expiredConnections.add(connection);
+                } else {
+                    nextDeadline = Math.min(nextDeadline, connection.idleDeadline);
+                }
+            }
+        }
+        for (Connection expiredConnection : expiredConnections) {
+            closeIdle(expiredConnection);
+        }
+        selector.select(nextDeadline == Long.MAX_VALUE ? 0 : Math.max(nextDeadline - now, 1));
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (key.attachment() instanceof Connection) {
+                // an idle connection can only become readable when the server closes it
+                closeIdle((Connection)key.attachment());
+                continue;
+            }
+            Call selectedCall = (Call)key.attachment();
+            try {
+                if (! key.isValid()) {
+                    continue;
+                }
+                if (key.isConnectable()) {
+                    if (selectedCall.connection.channel.finishConnect()) {
+                        connected(selectedCall);
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                } else if (key.isWritable()) {
+                    selectedCall.connection.channel.write(selectedCall.request);
+                    if (! selectedCall.request.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    readBuffer.clear();
+                    int read = selectedCall.connection.channel.read(readBuffer);
+                    if (read > 0) {
+                        readBuffer.flip();
+                        selectedCall.append(readBuffer);
+                    }
+                    if (read < 0 && selectedCall.reused && selectedCall.size == 0) {
+                        retry(selectedCall);
+                    } else if (read < 0) {
+                        finish(selectedCall, false);
+                    } else if (selectedCall.isComplete()) {
+                        finish(selectedCall, selectedCall.isReusable());
+                    }
+                }
+            } catch (IOException e) {
+                if (selectedCall.reused && selectedCall.size == 0) {
+                    retry(selectedCall);
+                } else {
+                    fail(selectedCall, e, true);
+                }
+            }
+        }
+    }
+
+    private static void start(Call call) {
+        Connection connection = takeIdleConnection(call.peer);
+        if (connection != null) {
+            call.connection = connection;
+            call.reused = true;
+            call.requestStartTime = System.currentTimeMillis();
+            connection.key.attach(call);
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+            activeCalls.add(call);
+            return;
+        }
+        if (call.address == null) {
+            resolve(call);
+            return;
+        }
+        try {
+            if (call.address.isUnresolved()) {
+                throw new UnknownHostException(call.host);
+            }
+            call.connection = new Connection(call.peer, SocketChannel.open());
+            activeCalls.add(call);
+            SocketChannel channel = call.connection.channel;
+            channel.configureBlocking(false);
+            call.connectStartTime = System.currentTimeMillis();
+            if (channel.connect(call.address)) {
+                connected(call);
+                call.connection.key = channel.register(selector, SelectionKey.OP_WRITE, call);
+            } else {
+                call.connection.key = channel.register(selector, SelectionKey.OP_CONNECT, call);
+            }
+        } catch (IOException e) {
+            fail(call, e, true);
+        }
+    }
+
+    // a name lookup may block, so it runs on a worker and the call is queued again once it is done
+    private static void resolve(final Call call) {
+        try {
+            resolverService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    call.address = new InetSocketAddress(call.host, call.port);
+                    send(call);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(call, new IOException("Peer client shut down"), false);
+        }
+    }
+
+    // the server closed the reused connection before answering, the request is sent again on a new one
+    private static void retry(Call call) {
+        close(call);
+        call.reset();
+        start(call);
+    }
+
+    private static void connected(Call call) {
+        call.requestStartTime = System.currentTimeMillis();
+        call.onConnect(call.requestStartTime - call.connectStartTime);
+    }
+
+    private static void finish(final Call call, boolean reusable) {
+        if (reusable) {
+            release(call);
+        } else {
+            close(call);
+        }
+        try {
+            responseService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    JSONObject response;
+                    try {
+                        call.readBody();
+                        response = call.onResponse();
+                    } catch (IOException|RuntimeException e) {
+                        call.onFailure(e);
+                        response = null;
+                    }
+                    call.complete(response);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            call.onFailure(new IOException("Peer client shut down"));
+            call.complete(null);
+        }
+    }
+
+    // the channel is closed here, the callbacks run on the response workers unless they are shut down
+    private static void fail(final Call call, final Exception e, boolean close) {
+        if (close) {
+            close(call);
+        }
+        Runnable failure = new Runnable() {
+            @Override
+            public void run() {
+                call.onFailure(e);
+                call.complete(null);
+            }
+        };
+        try {
+            responseService.execute(failure);
+        } catch (RejectedExecutionException ignore) {
+            failure.run();
+        }
+    }
+
+    private static void close(Call call) {
+        activeCalls.remove(call);
+        if (call.connection != null) {
+            try {
+                call.connection.channel.close();
+            } catch (IOException ignore) {}
+            call.connection = null;
+        }
+    }
+
+    // keeps the connection of a complete response open for the next request to the same peer
+    private static void release(Call call) {
+        activeCalls.remove(call);
+        Connection connection = call.connection;
+        call.connection = null;
+        connection.idleDeadline = System.currentTimeMillis() + call.getKeepAliveTimeout();
+        connection.key.attach(connection);
+        connection.key.interestOps(SelectionKey.OP_READ);
+        List<Connection> connections = idleConnections.get(connection.peer);
+        if (connections == null) {
+            connections = new ArrayList<>();
+            idleConnections.put(connection.peer, connections);
+        }
+        connections.add(connection);
+    }
+
+    private static Connection takeIdleConnection(String peer) {
+        List<Connection> connections = idleConnections.get(peer);
+        if (connections == null) {
+            return null;
+        }
+        Connection connection = connections.remove(connections.size() - 1);
+        if (connections.isEmpty()) {
+            idleConnections.remove(peer);
+        }
+        return connection;
+    }
+
+    private static void closeIdle(Connection connection) {
+        List<Connection> connections = idleConnections.get(connection.peer);
+        if (connections != null && connections.remove(connection) && connections.isEmpty()) {
+            idleConnections.remove(connection.peer);
+        }
+        try {
+            connection.channel.close();
+        } catch (IOException ignore) {}
+    }
+
+    private PeerClient() {} // never
+
+}
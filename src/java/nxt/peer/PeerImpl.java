@@ -6,23 +6,22 @@ import nxt.Constants;
 import nxt.NxtException;
 import nxt.TransactionType;
 import nxt.util.Convert;
-import nxt.util.CountingInputStream;
-import nxt.util.CountingOutputStream;
+import nxt.util.LimitedInputStream;
+import nxt.util.Listener;
 import nxt.util.Logger;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 import org.json.simple.JSONValue;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
-import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
@@ -33,7 +32,17 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 final class PeerImpl implements Peer {
 
@@ -50,6 +59,16 @@ final class PeerImpl implements Peer {
     private volatile State state;
     private volatile long downloadedVolume;
     private volatile long uploadedVolume;
+    private volatile long rawDownloadedVolume;
+    private volatile long rawUploadedVolume;
+    // set once the peer has answered with Accept-Encoding: gzip, so it can read compressed requests
+    private volatile boolean acceptsCompressedRequests;
+    // moving averages in milliseconds, connecting takes almost no time when a kept alive connection is reused
+    private volatile long connectLatency = -1;
+    private volatile long requestLatency = -1;
+    // request types the peer answered as unsupported, forgotten when it reports a new version
+    private final Set<String> unsupportedRequestTypes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Semaphore connections = new Semaphore(Peers.maxConnectionsPerPeer);
 
     PeerImpl(String peerAddress, String announcedAddress) {
         this.peerAddress = peerAddress;
@@ -89,9 +108,16 @@ final class PeerImpl implements Peer {
         return downloadedVolume;
     }
 
-    void updateDownloadedVolume(long volume) {
+    // raw volumes count the data before compression, the other volumes the bytes actually transferred
+    @Override
+    public long getRawDownloadedVolume() {
+        return rawDownloadedVolume;
+    }
+
+    void updateDownloadedVolume(long volume, long rawVolume) {
         synchronized (this) {
             downloadedVolume += volume;
+            rawDownloadedVolume += rawVolume;
         }
         Peers.notifyListeners(this, Peers.Event.DOWNLOADED_VOLUME);
     }
@@ -101,22 +127,53 @@ final class PeerImpl implements Peer {
         return uploadedVolume;
     }
 
-    void updateUploadedVolume(long volume) {
+    @Override
+    public long getRawUploadedVolume() {
+        return rawUploadedVolume;
+    }
+
+    void updateUploadedVolume(long volume, long rawVolume) {
         synchronized (this) {
             uploadedVolume += volume;
+            rawUploadedVolume += rawVolume;
         }
         Peers.notifyListeners(this, Peers.Event.UPLOADED_VOLUME);
     }
 
+    @Override
+    public long getConnectLatency() {
+        return connectLatency;
+    }
+
+    @Override
+    public long getRequestLatency() {
+        return requestLatency;
+    }
+
+    private static long average(long average, long latency) {
+        return average < 0 ? latency : (average * 7 + latency) / 8;
+    }
+
     @Override
     public String getVersion() {
         return version;
     }
 
     void setVersion(String version) {
+        if (! Objects.equals(this.version, version)) {
+            unsupportedRequestTypes.clear();
+        }
         this.version = version;
     }
 
+    boolean isRequestTypeSupported(String requestType) {
+        return ! unsupportedRequestTypes.contains(requestType);
+    }
+
+    void setRequestTypeUnsupported(String requestType) {
+        unsupportedRequestTypes.add(requestType);
+    }
+
     @Override
     public String getApplication() {
         return application;
@@ -250,38 +307,68 @@ final class PeerImpl implements Peer {
         String log = null;
         boolean showLog = false;
         HttpURLConnection connection = null;
+        LimitedInputStream cis = null;
+        LimitedInputStream rawCis = null;
 
         try {
+            if (! connections.tryAcquire(Peers.connectTimeout, TimeUnit.MILLISECONDS)) {
+                Logger.logDebugMessage("Too many concurrent requests to " + peerAddress);
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
 
-            String address = announcedAddress != null ? announcedAddress : peerAddress;
+        try {
 
             if (Peers.communicationLoggingMask != 0) {
                 StringWriter stringWriter = new StringWriter();
                 request.writeJSONString(stringWriter);
-                log = "\"" + address + "\": " + stringWriter.toString();
+                log = "\"" + (announcedAddress != null ? announcedAddress : peerAddress) + "\": " + stringWriter.toString();
             }
 
-            URL url = new URL("http://" + address + (port <= 0 ? ":" + (Constants.isTestnet ? Peers.TESTNET_PEER_PORT : Peers.DEFAULT_PEER_PORT) : "") + "/nxt");
-            connection = (HttpURLConnection)url.openConnection();
+            connection = (HttpURLConnection)getURL().openConnection();
             connection.setRequestMethod("POST");
             connection.setDoOutput(true);
             connection.setConnectTimeout(Peers.connectTimeout);
             connection.setReadTimeout(Peers.readTimeout);
 
-            CountingOutputStream cos = new CountingOutputStream(connection.getOutputStream());
-            try (Writer writer = new BufferedWriter(new OutputStreamWriter(cos, "UTF-8"))) {
-                request.writeJSONString(writer);
+            byte[] requestBytes = Peers.toBytes(request);
+            byte[] body = requestBytes;
+            if (acceptsCompressedRequests && Peers.shouldCompress(requestBytes, "gzip")) {
+                body = Peers.compress(requestBytes);
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+            if (Peers.enablePeerCompression) {
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+            }
+            connection.setFixedLengthStreamingMode(body.length);
+
+            long startTime = System.currentTimeMillis();
+            connection.connect();
+            long connectTime = System.currentTimeMillis();
+            connectLatency = average(connectLatency, connectTime - startTime);
+
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
             }
-            updateUploadedVolume(cos.getCount());
+            updateUploadedVolume(body.length, requestBytes.length);
 
             if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
 
+                String acceptEncoding = connection.getHeaderField("Accept-Encoding");
+                acceptsCompressedRequests = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+                cis = new LimitedInputStream(connection.getInputStream(), Peers.maxPeerResponseSize);
+                rawCis = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                        ? new LimitedInputStream(new GZIPInputStream(cis), Peers.maxPeerResponseSize) : cis;
+
                 if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
                     // inefficient
                     ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
                     byte[] buffer = new byte[65536];
                     int numberOfBytes;
-                    try (InputStream inputStream = connection.getInputStream()) {
+                    try (InputStream inputStream = rawCis) {
                         while ((numberOfBytes = inputStream.read(buffer)) > 0) {
                             byteArrayOutputStream.write(buffer, 0, numberOfBytes);
                         }
@@ -289,25 +376,34 @@ final class PeerImpl implements Peer {
                     String responseValue = byteArrayOutputStream.toString("UTF-8");
                     log += " >>> " + responseValue;
                     showLog = true;
-                    updateDownloadedVolume(responseValue.getBytes("UTF-8").length);
+                    updateDownloadedVolume(cis.getCount(), rawCis.getCount());
                     response = (JSONObject) JSONValue.parse(responseValue);
 
                 } else {
 
-                    CountingInputStream cis = new CountingInputStream(connection.getInputStream());
-                    try (Reader reader = new BufferedReader(new InputStreamReader(cis, "UTF-8"))) {
+                    // closing the stream rather than disconnecting returns the connection to the keep-alive cache
+                    try (Reader reader = new BufferedReader(new InputStreamReader(rawCis, "UTF-8"))) {
                         response = (JSONObject)JSONValue.parse(reader);
                     }
-                    updateDownloadedVolume(cis.getCount());
+                    updateDownloadedVolume(cis.getCount(), rawCis.getCount());
 
                 }
 
+                requestLatency = average(requestLatency, System.currentTimeMillis() - connectTime);
+
             } else {
 
                 if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_NON200_RESPONSES) != 0) {
                     log += " >>> Peer responded with HTTP " + connection.getResponseCode() + " code!";
                     showLog = true;
                 }
+                // the error body must also be consumed for the connection to be reused
+                try (InputStream errorStream = connection.getErrorStream()) {
+                    if (errorStream != null) {
+                        byte[] buffer = new byte[4096];
+                        while (errorStream.read(buffer) > 0) {}
+                    }
+                }
                 if (state == State.CONNECTED) {
                     setState(State.DISCONNECTED);
                 } else {
@@ -328,6 +424,22 @@ final class PeerImpl implements Peer {
             if (state == State.CONNECTED) {
                 setState(State.DISCONNECTED);
             }
+            // the connection may be in an unknown state, so it is closed instead of being reused
+            if (connection != null) {
+                connection.disconnect();
+            }
+            response = null;
+        } finally {
+            connections.release();
+        }
+
+        // only a compressed response inflating past the limit is malicious, an honest peer may just have much to send
+        if (rawCis != cis && rawCis.isLimitExceeded()) {
+            Logger.logDebugMessage("Peer " + peerAddress + " sent a response inflating past the size limit, blacklisting");
+            blacklist();
+            response = null;
+        } else if (cis != null && cis.isLimitExceeded()) {
+            Logger.logDebugMessage("Peer " + peerAddress + " sent an oversized response, dropped");
             response = null;
         }
 
@@ -335,12 +447,130 @@ final class PeerImpl implements Peer {
             Logger.logMessage(log + "\n");
         }
 
-        if (connection != null) {
-            connection.disconnect();
+        return response;
+
+    }
+
+    // same as send, but waiting for the response does not hold a thread, the callback may be null
+    // the callback is run by a network thread and must not block
+    @Override
+    public Future<JSONObject> sendAsync(JSONStreamAware request, final Listener<JSONObject> callback) {
+        if (! connections.tryAcquire()) {
+            Logger.logDebugMessage("Too many concurrent requests to " + peerAddress);
+            return failed(callback);
         }
+        // the connection slot is released once the call completes, whichever way
+        Listener<JSONObject> releasingCallback = new Listener<JSONObject>() {
+            @Override
+            public void notify(JSONObject response) {
+                connections.release();
+                if (callback != null) {
+                    callback.notify(response);
+                }
+            }
+        };
+        final byte[] requestBytes;
+        final byte[] body;
+        final String log;
+        PeerClient.Call call;
+        try {
+            requestBytes = Peers.toBytes(request);
+            log = Peers.communicationLoggingMask != 0 ? "\"" + (announcedAddress != null ? announcedAddress : peerAddress) + "\": "
+                    + new String(requestBytes, "UTF-8") : null;
+            boolean compressed = acceptsCompressedRequests && Peers.shouldCompress(requestBytes, "gzip");
+            body = compressed ? Peers.compress(requestBytes) : requestBytes;
+            call = new PeerClient.Call(getURL(), body, compressed, Peers.connectTimeout + Peers.readTimeout, releasingCallback) {
+
+                @Override
+                void onConnect(long latency) {
+                    connectLatency = average(connectLatency, latency);
+                }
 
-        return response;
+                @Override
+                JSONObject onResponse() throws IOException {
+                    updateUploadedVolume(body.length, requestBytes.length);
+                    if (getStatusCode() != HttpURLConnection.HTTP_OK) {
+                        if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_NON200_RESPONSES) != 0) {
+                            Logger.logMessage(log + " >>> Peer responded with HTTP " + getStatusCode() + " code!\n");
+                        }
+                        if (state == State.CONNECTED) {
+                            setState(State.DISCONNECTED);
+                        } else {
+                            setState(State.NON_CONNECTED);
+                        }
+                        return null;
+                    }
+                    String acceptEncoding = getHeader("Accept-Encoding");
+                    acceptsCompressedRequests = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+                    byte[] responseBytes = getBody();
+                    long volume = responseBytes.length;
+                    if ("gzip".equalsIgnoreCase(getHeader("Content-Encoding"))) {
+                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(responseBytes.length * 4);
+                        LimitedInputStream rawInputStream = new LimitedInputStream(new GZIPInputStream(new ByteArrayInputStream(responseBytes)),
+                                Peers.maxPeerResponseSize);
+                        try (InputStream inputStream = rawInputStream) {
+                            byte[] buffer = new byte[8192];
+                            int numberOfBytes;
+                            while ((numberOfBytes = inputStream.read(buffer)) > 0) {
+                                outputStream.write(buffer, 0, numberOfBytes);
+                            }
+                        } catch (IOException e) {
+                            if (rawInputStream.isLimitExceeded()) {
+                                Logger.logDebugMessage("Peer " + peerAddress + " sent a response inflating past the size limit, blacklisting");
+                                blacklist();
+                            }
+                            throw e;
+                        }
+                        responseBytes = outputStream.toByteArray();
+                    }
+                    updateDownloadedVolume(volume, responseBytes.length);
+                    requestLatency = average(requestLatency, System.currentTimeMillis() - getRequestStartTime());
+                    String responseValue = new String(responseBytes, "UTF-8");
+                    if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_200_RESPONSES) != 0) {
+                        Logger.logMessage(log + " >>> " + responseValue + "\n");
+                    }
+                    return (JSONObject)JSONValue.parse(responseValue);
+                }
+
+                @Override
+                void onFailure(Exception e) {
+                    if (! (e instanceof UnknownHostException || e instanceof SocketTimeoutException || e instanceof SocketException)) {
+                        Logger.logDebugMessage("Error sending JSON request", e);
+                    }
+                    if ((Peers.communicationLoggingMask & Peers.LOGGING_MASK_EXCEPTIONS) != 0) {
+                        Logger.logMessage(log + " >>> " + e.toString() + "\n");
+                    }
+                    if (state == State.CONNECTED) {
+                        setState(State.DISCONNECTED);
+                    }
+                }
+
+            };
+        } catch (IOException|RuntimeException e) {
+            Logger.logDebugMessage("Error preparing JSON request", e);
+            connections.release();
+            return failed(callback);
+        }
+        return PeerClient.send(call);
+    }
+
+    private static Future<JSONObject> failed(Listener<JSONObject> callback) {
+        if (callback != null) {
+            callback.notify(null);
+        }
+        FutureTask<JSONObject> failed = new FutureTask<>(new Callable<JSONObject>() {
+            @Override
+            public JSONObject call() {
+                return null;
+            }
+        });
+        failed.run();
+        return failed;
+    }
 
+    private URL getURL() throws MalformedURLException {
+        String address = announcedAddress != null ? announcedAddress : peerAddress;
+        return new URL("http://" + address + (port <= 0 ? ":" + (Constants.isTestnet ? Peers.TESTNET_PEER_PORT : Peers.DEFAULT_PEER_PORT) : "") + "/nxt");
     }
 
     @Override
@@ -1,8 +1,7 @@
 package nxt.peer;
 
-import nxt.util.CountingInputStream;
-import nxt.util.CountingOutputStream;
 import nxt.util.JSON;
+import nxt.util.LimitedInputStream;
 import nxt.util.Logger;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -13,15 +12,14 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.Writer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 public final class PeerServlet extends HttpServlet {
 
@@ -39,16 +37,21 @@ public final class PeerServlet extends HttpServlet {
         map.put("getNextBlockIds", GetNextBlockIds.instance);
         map.put("getNextBlocks", GetNextBlocks.instance);
         map.put("getPeers", GetPeers.instance);
+        map.put("getTransactions", GetTransactions.instance);
+        map.put("getUnconfirmedTransactionIds", GetUnconfirmedTransactionIds.instance);
         map.put("getUnconfirmedTransactions", GetUnconfirmedTransactions.instance);
         map.put("processBlock", ProcessBlock.instance);
+        map.put("processTransactionIds", ProcessTransactionIds.instance);
         map.put("processTransactions", ProcessTransactions.instance);
         peerRequestHandlers = Collections.unmodifiableMap(map);
     }
 
+    static final String UNSUPPORTED_REQUEST_TYPE_ERROR = "Unsupported request type!";
+
     private static final JSONStreamAware UNSUPPORTED_REQUEST_TYPE;
     static {
         JSONObject response = new JSONObject();
-        response.put("error", "Unsupported request type!");
+        response.put("error", UNSUPPORTED_REQUEST_TYPE_ERROR);
         UNSUPPORTED_REQUEST_TYPE = JSON.prepare(response);
     }
 
@@ -59,6 +62,8 @@ public final class PeerServlet extends HttpServlet {
         UNSUPPORTED_PROTOCOL = JSON.prepare(response);
     }
 
+    private static final String KEEP_ALIVE = "timeout=" + Math.max(Peers.peerServerIdleTimeout / 1000 - 1, 1) + ", max=1000";
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
 
@@ -75,10 +80,22 @@ public final class PeerServlet extends HttpServlet {
             }
 
             JSONObject request;
-            CountingInputStream cis = new CountingInputStream(req.getInputStream());
-            try (Reader reader = new BufferedReader(new InputStreamReader(cis, "UTF-8"))) {
+            LimitedInputStream cis = new LimitedInputStream(req.getInputStream(), Peers.maxPeerRequestSize);
+            LimitedInputStream rawCis = "gzip".equalsIgnoreCase(req.getHeader("Content-Encoding"))
+                    ? new LimitedInputStream(new GZIPInputStream(cis), Peers.maxPeerRequestSize) : cis;
+            try (Reader reader = new BufferedReader(new InputStreamReader(rawCis, "UTF-8"))) {
                 request = (JSONObject) JSONValue.parse(reader);
             }
+            // only a compressed request inflating past the limit is malicious, a large plain one is just dropped
+            if (rawCis != cis && rawCis.isLimitExceeded()) {
+                Logger.logDebugMessage("Peer " + peer.getPeerAddress() + " sent a request inflating past the size limit, blacklisting");
+                peer.blacklist();
+                return;
+            }
+            if (cis.isLimitExceeded()) {
+                Logger.logDebugMessage("Peer " + peer.getPeerAddress() + " sent an oversized request, dropped");
+                return;
+            }
             if (request == null) {
                 return;
             }
@@ -86,7 +103,7 @@ public final class PeerServlet extends HttpServlet {
             if (peer.getState() == Peer.State.DISCONNECTED) {
                 peer.setState(Peer.State.CONNECTED);
             }
-            peer.updateDownloadedVolume(cis.getCount());
+            peer.updateDownloadedVolume(cis.getCount(), rawCis.getCount());
             if (! peer.analyzeHallmark(peer.getPeerAddress(), (String)request.get("hallmark"))) {
                 peer.blacklist();
                 return;
@@ -112,13 +129,26 @@ public final class PeerServlet extends HttpServlet {
         }
 
         resp.setContentType("text/plain; charset=UTF-8");
-        CountingOutputStream cos = new CountingOutputStream(resp.getOutputStream());
-        try (Writer writer = new BufferedWriter(new OutputStreamWriter(cos, "UTF-8"))) {
-            response.writeJSONString(writer);
+        // HttpURLConnection keeps the connection cached for the advertised timeout, which must end before the server closes it
+        resp.setHeader("Connection", "keep-alive");
+        resp.setHeader("Keep-Alive", KEEP_ALIVE);
+        if (Peers.enablePeerCompression) {
+            // tells the client it may compress its requests
+            resp.setHeader("Accept-Encoding", "gzip");
+        }
+        byte[] responseBytes = Peers.toBytes(response);
+        byte[] body = responseBytes;
+        if (Peers.shouldCompress(responseBytes, req.getHeader("Accept-Encoding"))) {
+            body = Peers.compress(responseBytes);
+            resp.setHeader("Content-Encoding", "gzip");
+        }
+        resp.setContentLength(body.length);
+        try (OutputStream outputStream = resp.getOutputStream()) {
+            outputStream.write(body);
         }
 
         if (peer != null) {
-            peer.updateUploadedVolume(cos.getCount());
+            peer.updateUploadedVolume(body.length, responseBytes.length);
         }
     }
 
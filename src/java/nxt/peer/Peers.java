@@ -18,6 +18,10 @@ import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -28,14 +32,10 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
 
 public final class Peers {
 
@@ -57,6 +57,12 @@ public final class Peers {
     static final int connectTimeout;
     static final int readTimeout;
     static final int blacklistingPeriod;
+    static final int maxConnectionsPerPeer;
+    static final int peerServerIdleTimeout;
+    static final boolean enablePeerCompression;
+    static final int peerCompressionThreshold;
+    static final int maxPeerRequestSize;
+    static final int maxPeerResponseSize;
 
     static final int DEFAULT_PEER_PORT = 7872;
     static final int TESTNET_PEER_PORT = 6874;
@@ -69,7 +75,7 @@ public final class Peers {
     private static final boolean enableHallmarkProtection;
     private static final int pushThreshold;
     private static final int pullThreshold;
-    private static final int sendToPeersLimit;
+    static final int sendToPeersLimit;
 
     static final JSONStreamAware myPeerInfoRequest;
     static final JSONStreamAware myPeerInfoResponse;
@@ -80,7 +86,6 @@ public final class Peers {
 
     static final Collection<PeerImpl> allPeers = Collections.unmodifiableCollection(peers.values());
 
-    private static final ExecutorService sendToPeersService = Executors.newFixedThreadPool(10);
 
     static {
 
@@ -172,6 +177,14 @@ public final class Peers {
         maxNumberOfConnectedPublicPeers = Nxt.getIntProperty("nas.maxNumberOfConnectedPublicPeers");
         connectTimeout = Nxt.getIntProperty("nas.connectTimeout");
         readTimeout = Nxt.getIntProperty("nas.readTimeout");
+        maxConnectionsPerPeer = Math.max(Nxt.getIntProperty("nas.maxConnectionsPerPeer"), 1);
+        // idle connections are cached per host by HttpURLConnection, this sets how many are kept
+        System.setProperty("http.maxConnections", String.valueOf(maxConnectionsPerPeer));
+        peerServerIdleTimeout = Nxt.getIntProperty("nas.peerServerIdleTimeout");
+        enablePeerCompression = Nxt.getBooleanProperty("nas.enablePeerCompression");
+        peerCompressionThreshold = Nxt.getIntProperty("nas.peerCompressionThreshold");
+        maxPeerRequestSize = Nxt.getIntProperty("nas.maxPeerRequestSize");
+        maxPeerResponseSize = Nxt.getIntProperty("nas.maxPeerResponseSize");
         enableHallmarkProtection = Nxt.getBooleanProperty("nas.enableHallmarkProtection");
         pushThreshold = Nxt.getIntProperty("nas.pushThreshold");
         pullThreshold = Nxt.getIntProperty("nas.pullThreshold");
@@ -203,7 +216,7 @@ public final class Peers {
                 connector.setPort(port);
                 final String host = Nxt.getStringProperty("nas.peerServerHost");
                 connector.setHost(host);
-                connector.setIdleTimeout(Nxt.getIntProperty("nas.peerServerIdleTimeout"));
+                connector.setIdleTimeout(peerServerIdleTimeout);
                 peerServer.addConnector(connector);
 
                 ServletHandler peerHandler = new ServletHandler();
@@ -372,7 +385,8 @@ public final class Peers {
                 Logger.logDebugMessage("Failed to stop peer server", e);
             }
         }
-        ThreadPool.shutdownExecutor(sendToPeersService);
+        Broadcaster.shutdown();
+        PeerClient.shutdown();
 
     }
 
@@ -442,49 +456,23 @@ public final class Peers {
         return peers.remove(peer.getPeerAddress());
     }
 
-    public static void sendToSomePeers(final JSONObject request) {
-
-        final JSONStreamAware jsonRequest = JSON.prepareRequest(request);
-
-        int successful = 0;
-        List<Future<JSONObject>> expectedResponses = new ArrayList<>();
-        for (final Peer peer : peers.values()) {
+    // queues the request and returns at once, see Broadcaster
+    public static void sendToSomePeers(JSONObject request) {
+        sendToSomePeers(request, null);
+    }
 
+    // peers that do not support the request type of request are sent fallbackRequest instead
+    public static void sendToSomePeers(JSONObject request, JSONObject fallbackRequest) {
+        List<Peer> candidates = new ArrayList<>();
+        for (Peer peer : peers.values()) {
             if (Peers.enableHallmarkProtection && peer.getWeight() < Peers.pushThreshold) {
                 continue;
             }
-
             if (! peer.isBlacklisted() && peer.getState() == Peer.State.CONNECTED && peer.getAnnouncedAddress() != null) {
-                Future<JSONObject> futureResponse = sendToPeersService.submit(new Callable<JSONObject>() {
-                    @Override
-                    public JSONObject call() {
-                        return peer.send(jsonRequest);
-                    }
-                });
-                expectedResponses.add(futureResponse);
-            }
-            if (expectedResponses.size() >= Peers.sendToPeersLimit - successful) {
-                for (Future<JSONObject> future : expectedResponses) {
-                    try {
-                        JSONObject response = future.get();
-                        if (response != null && response.get("error") == null) {
-                            successful += 1;
-                        }
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    } catch (ExecutionException e) {
-                        Logger.logDebugMessage("Error in sendToSomePeers", e);
-                    }
-
-                }
-                expectedResponses.clear();
-            }
-            if (successful >= Peers.sendToPeersLimit) {
-                return;
+                candidates.add(peer);
             }
-
         }
-
+        Broadcaster.broadcast(request, fallbackRequest, candidates);
     }
 
     public static Peer getAnyPeer(Peer.State state, boolean applyPullThreshold) {
@@ -554,4 +542,25 @@ public final class Peers {
 
     private Peers() {} // never
 
+    static byte[] toBytes(JSONStreamAware json) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(outputStream, "UTF-8")) {
+            json.writeJSONString(writer);
+        }
+        return outputStream.toByteArray();
+    }
+
+    static boolean shouldCompress(byte[] bytes, String acceptEncoding) {
+        return enablePeerCompression && bytes.length >= peerCompressionThreshold
+                && acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+
+    static byte[] compress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(bytes);
+        }
+        return outputStream.toByteArray();
+    }
+
 }
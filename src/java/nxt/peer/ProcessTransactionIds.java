@@ -0,0 +1,23 @@
+package nxt.peer;
+
+import nxt.Nxt;
+import nxt.util.JSON;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONStreamAware;
+
+final class ProcessTransactionIds extends PeerServlet.PeerRequestHandler {
+
+    static final ProcessTransactionIds instance = new ProcessTransactionIds();
+
+    private ProcessTransactionIds() {}
+
+
+    @Override
+    JSONStreamAware processRequest(JSONObject request, Peer peer) {
+
+        Nxt.getTransactionProcessor().processPeerTransactionIds(request, peer);
+
+        return JSON.emptyJSON;
+    }
+
+}
@@ -1,25 +0,0 @@
-package nxt.util;
-
-import java.io.FilterOutputStream;
-import java.io.IOException;
-import java.io.OutputStream;
-
-public class CountingOutputStream extends FilterOutputStream {
-
-    private long count;
-
-    public CountingOutputStream(OutputStream out) {
-        super(out);
-    }
-
-    @Override
-    public void write(int b) throws IOException {
-        count += 1;
-        super.write(b);
-    }
-
-    public long getCount() {
-        return count;
-    }
-
-}
@@ -0,0 +1,48 @@
+package nxt.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// counts the bytes read and fails every read once more than limit bytes have been read
+// parsers that swallow IOExceptions return null instead, callers check isLimitExceeded afterwards
+public class LimitedInputStream extends CountingInputStream {
+
+    private final long limit;
+
+    public LimitedInputStream(InputStream in, long limit) {
+        super(in);
+        this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        checkLimit();
+        return read;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        checkLimit();
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        checkLimit();
+        return skipped;
+    }
+
+    public boolean isLimitExceeded() {
+        return getCount() > limit;
+    }
+
+    private void checkLimit() throws IOException {
+        if (isLimitExceeded()) {
+            throw new IOException("Stream exceeds " + limit + " bytes");
+        }
+    }
+
+}
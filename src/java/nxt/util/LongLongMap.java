@@ -0,0 +1,104 @@
+package nxt.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// open addressing hash map of primitive long keys to long values, absent keys read as 0
+// entries are never removed, not thread safe
+public final class LongLongMap {
+
+    private static final long FREE_KEY = 0;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private boolean hasFreeKey;
+    private long freeKeyValue;
+
+    public LongLongMap() {
+        keys = new long[4];
+        values = new long[4];
+    }
+
+    public int size() {
+        return hasFreeKey ? size + 1 : size;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+        return keys[indexOf(key, keys)] == key;
+    }
+
+    public long get(long key) {
+        if (key == FREE_KEY) {
+            return freeKeyValue;
+        }
+        int i = indexOf(key, keys);
+        return keys[i] == key ? values[i] : 0;
+    }
+
+    // adds delta to the value of key, inserting it if absent, and returns the new value
+    public long add(long key, long delta) {
+        if (key == FREE_KEY) {
+            hasFreeKey = true;
+            return freeKeyValue += delta;
+        }
+        int i = indexOf(key, keys);
+        if (keys[i] == key) {
+            return values[i] += delta;
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            rehash();
+            i = indexOf(key, keys);
+        }
+        keys[i] = key;
+        values[i] = delta;
+        size += 1;
+        return delta;
+    }
+
+    public Map<Long, Long> toMap() {
+        Map<Long, Long> map = new HashMap<>(size() * 4 / 3 + 1);
+        if (hasFreeKey) {
+            map.put(FREE_KEY, freeKeyValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                map.put(keys[i], values[i]);
+            }
+        }
+        return map;
+    }
+
+    // slot holding key, or the free slot where it would be inserted
+    private static int indexOf(long key, long[] keys) {
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (keys[i] != key && keys[i] != FREE_KEY) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE_KEY) {
+                int j = indexOf(oldKeys[i], keys);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package nxt.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// search by prefix or substring over lower case names, several values may share a name
+// names are kept sorted for prefix lookups, substrings of at least 3 characters are found through a trigram index
+public final class NameIndex<T> {
+
+    private static final int GRAM_LENGTH = 3;
+
+    private final TreeMap<String, List<T>> names = new TreeMap<>();
+    private final Map<String, Set<String>> grams = new HashMap<>();
+
+    public synchronized void add(String name, T value) {
+        List<T> values = names.get(name);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            names.put(name, values);
+            for (String gram : grams(name)) {
+                Set<String> gramNames = grams.get(gram);
+                if (gramNames == null) {
+                    gramNames = new HashSet<>();
+                    grams.put(gram, gramNames);
+                }
+                gramNames.add(name);
+            }
+        }
+        values.add(value);
+    }
+
+    public synchronized void remove(String name, T value) {
+        List<T> values = names.get(name);
+        if (values == null || ! values.remove(value) || ! values.isEmpty()) {
+            return;
+        }
+        names.remove(name);
+        for (String gram : grams(name)) {
+            Set<String> gramNames = grams.get(gram);
+            gramNames.remove(name);
+            if (gramNames.isEmpty()) {
+                grams.remove(gram);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        names.clear();
+        grams.clear();
+    }
+
+    // at most limit values, an exact match first, then the other names starting with the query, then names containing it
+    // each group is in name order
+    public synchronized List<T> search(String query, int limit) {
+        List<T> result = new ArrayList<>();
+        if (query.isEmpty() || limit <= 0) {
+            return result;
+        }
+        SortedMap<String, List<T>> prefixed = names.subMap(query, query + Character.MAX_VALUE);
+        for (List<T> values : prefixed.values()) {
+            if (! add(result, values, limit)) {
+                return result;
+            }
+        }
+        if (query.length() < GRAM_LENGTH) {
+            // too short for the trigram index, but short queries match often so the scan ends early
+            for (Map.Entry<String, List<T>> entry : names.entrySet()) {
+                if (entry.getKey().indexOf(query) > 0 && ! add(result, entry.getValue(), limit)) {
+                    return result;
+                }
+            }
+            return result;
+        }
+        Set<String> candidates = null;
+        for (String gram : grams(query)) {
+            Set<String> gramNames = grams.get(gram);
+            if (gramNames == null) {
+                return result;
+            }
+            if (candidates == null || gramNames.size() < candidates.size()) {
+                candidates = gramNames;
+            }
+        }
+        List<String> matches = new ArrayList<>();
+        for (String name : candidates) {
+            if (name.indexOf(query) > 0) {
+                matches.add(name);
+            }
+        }
+        Collections.sort(matches);
+        for (String name : matches) {
+            if (! add(result, names.get(name), limit)) {
+                return result;
+            }
+        }
+        return result;
+    }
+
+    private static <T> boolean add(List<T> result, List<T> values, int limit) {
+        for (T value : values) {
+            if (result.size() == limit) {
+                return false;
+            }
+            result.add(value);
+        }
+        return result.size() < limit;
+    }
+
+    private static Set<String> grams(String name) {
+        Set<String> nameGrams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= name.length(); i++) {
+            nameGrams.add(name.substring(i, i + GRAM_LENGTH));
+        }
+        return nameGrams;
+    }
+
+}
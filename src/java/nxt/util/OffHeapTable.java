@@ -0,0 +1,106 @@
+package nxt.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// rows of fixed width columns in direct memory, outside the garbage collected heap
+// each column of a chunk of rows is one buffer, so reading a column does not touch the others
+// rows are only ever added, adding is thread safe, reads and writes of a row must be synchronized by the caller
+public final class OffHeapTable {
+
+    private static final int ROWS_PER_CHUNK = 1 << 16;
+
+    private final int[] widths;
+    private volatile ByteBuffer[][] chunks = new ByteBuffer[0][];
+    private int size;
+
+    public OffHeapTable(int... widths) {
+        this.widths = widths.clone();
+    }
+
+    // returns the index of the new row, all its columns are zero
+    public synchronized int addRow() {
+        if (size == chunks.length * ROWS_PER_CHUNK) {
+            ByteBuffer[] chunk = new ByteBuffer[widths.length];
+            for (int i = 0; i < widths.length; i++) {
+                chunk[i] = ByteBuffer.allocateDirect(widths[i] * ROWS_PER_CHUNK);
+            }
+            ByteBuffer[][] newChunks = Arrays.copyOf(chunks, chunks.length + 1);
+            newChunks[chunks.length] = chunk;
+            chunks = newChunks;
+        }
+        return size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public long getLong(int row, int column) {
+        return column(row, column).getLong(offset(row, column));
+    }
+
+    public void putLong(int row, int column, long value) {
+        column(row, column).putLong(offset(row, column), value);
+    }
+
+    public int getInt(int row, int column) {
+        return column(row, column).getInt(offset(row, column));
+    }
+
+    public void putInt(int row, int column, int value) {
+        column(row, column).putInt(offset(row, column), value);
+    }
+
+    public byte getByte(int row, int column) {
+        return column(row, column).get(offset(row, column));
+    }
+
+    public void putByte(int row, int column, byte value) {
+        column(row, column).put(offset(row, column), value);
+    }
+
+    // the first bytes.length bytes of the column
+    public void getBytes(int row, int column, byte[] bytes) {
+        ByteBuffer buffer = column(row, column);
+        int offset = offset(row, column);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+    }
+
+    public void putBytes(int row, int column, byte[] bytes) {
+        if (bytes.length > widths[column]) {
+            throw new IllegalArgumentException("Column " + column + " holds " + widths[column] + " bytes, got " + bytes.length);
+        }
+        ByteBuffer buffer = column(row, column);
+        int offset = offset(row, column);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+    }
+
+    // compares in place, without copying the column out
+    public boolean equalBytes(int row, int column, byte[] bytes) {
+        if (bytes.length > widths[column]) {
+            return false;
+        }
+        ByteBuffer buffer = column(row, column);
+        int offset = offset(row, column);
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer column(int row, int column) {
+        return chunks[row / ROWS_PER_CHUNK][column];
+    }
+
+    private int offset(int row, int column) {
+        return (row % ROWS_PER_CHUNK) * widths[column];
+    }
+
+}
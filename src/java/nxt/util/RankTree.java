@@ -0,0 +1,171 @@
+package nxt.util;
+
+import java.util.Random;
+
+// order statistics tree of (score, id) pairs, ordered by descending score and then ascending id
+// a treap with subtree sizes, so rank and select are O(log n), not thread safe
+public final class RankTree {
+
+    private static final class Node {
+        private final long score;
+        private final long id;
+        private final int priority;
+        private int size = 1;
+        private Node left;
+        private Node right;
+        private Node(long score, long id, int priority) {
+            this.score = score;
+            this.id = id;
+            this.priority = priority;
+        }
+    }
+
+    private final Random random = new Random();
+    private Node root;
+
+    public int size() {
+        return size(root);
+    }
+
+    public void clear() {
+        root = null;
+    }
+
+    public void add(long score, long id) {
+        root = insert(root, new Node(score, id, random.nextInt()));
+    }
+
+    public void remove(long score, long id) {
+        root = delete(root, score, id);
+    }
+
+    // zero based position of the pair, -1 if not present
+    public int rank(long score, long id) {
+        int rank = 0;
+        Node node = root;
+        while (node != null) {
+            int c = compare(score, id, node);
+            if (c < 0) {
+                node = node.left;
+            } else if (c > 0) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return rank + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    public long getId(int index) {
+        return select(index).id;
+    }
+
+    public long getScore(int index) {
+        return select(index).score;
+    }
+
+    private Node select(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range, size is " + size());
+        }
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private static int compare(long score, long id, Node node) {
+        if (score != node.score) {
+            return score > node.score ? -1 : 1;
+        }
+        return id < node.id ? -1 : (id == node.id ? 0 : 1);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+    }
+
+    private static Node insert(Node node, Node newNode) {
+        if (node == null) {
+            return newNode;
+        }
+        if (compare(newNode.score, newNode.id, node) < 0) {
+            node.left = insert(node.left, newNode);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, newNode);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        update(node);
+        return node;
+    }
+
+    private static Node delete(Node node, long score, long id) {
+        if (node == null) {
+            return null;
+        }
+        int c = compare(score, id, node);
+        if (c < 0) {
+            node.left = delete(node.left, score, id);
+        } else if (c > 0) {
+            node.right = delete(node.right, score, id);
+        } else {
+            return merge(node.left, node.right);
+        }
+        update(node);
+        return node;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+
+}